@@ -0,0 +1,64 @@
+package edu.lehigh.libraries.purchase_request.lost_items_client.service;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Taking an item out of the workflow once a decision is made: removeStatisticalCode and 
+ * removeStatusNote.  Each call first restores the item's codes and notes; restoreOnly measures 
+ * that part alone, to subtract.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DecisionChangesBenchmark {
+
+    private MonitorWorkflowService service;
+    private JSONObject item;
+    private List<Object> statisticalCodeIds;
+    private List<Object> notes;
+
+    @Setup
+    public void setUp() throws Exception {
+        service = new MonitorWorkflowService(Fixtures.config());
+        item = Fixtures.items(1).get(0);
+        statisticalCodeIds = item.getJSONArray("statisticalCodeIds").toList();
+        notes = item.getJSONArray("notes").toList();
+    }
+
+    @Benchmark
+    public JSONObject restoreOnly() {
+        restore();
+        return item;
+    }
+
+    @Benchmark
+    public JSONObject removeCodeAndNote() {
+        restore();
+        service.removeStatisticalCode(item);
+        service.removeStatusNote(item);
+        return item;
+    }
+
+    private void restore() {
+        item.put("statisticalCodeIds", new JSONArray(statisticalCodeIds));
+        item.put("notes", new JSONArray(notes));
+    }
+
+}
@@ -0,0 +1,143 @@
+package edu.lehigh.libraries.purchase_request.lost_items_client.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import edu.lehigh.libraries.purchase_request.lost_items_client.config.PropertiesConfig;
+
+/**
+ * Records and configuration for the benchmarks, built from the JSON files in src/jmh/resources/fixtures.
+ * 
+ * Pages of items are copies of one realistic /inventory/items record, each with its own ids and 
+ * barcode, so that caches and string interning don't flatter the results.
+ */
+final class Fixtures {
+
+    static final String IN_WORKFLOW_CODE = "0f4a3e1b-5a0c-4f8e-8a3d-2b1c9d7e6f50";
+    static final String DAMAGED_BEYOND_REPAIR_CODE = "6899291a-7d23-4a8c-b0fb-35d93b06e7d0";
+    static final String RETENTION_AGREEMENT_CODE = "b5968c9e-cddc-4576-99e3-8e60aed8b0dd";
+    static final String WORKFLOW_TAG_NOTE_TYPE = "4c2d9a7e-8f1b-4e3a-9c6d-5b7a8e9f0a12";
+    static final String WORKFLOW_COMMENT_NOTE_TYPE = "7e1f3b5d-2a4c-4d6e-8f0a-1b3c5d7e9f24";
+    static final String PATRON_REQUESTING_NOTE_TYPE = "9a8b7c6d-5e4f-4a3b-8c2d-1e0f9a8b7c36";
+    static final String LEGACY_CIRCULATION_COUNT_NOTE_TYPE = "8d0a5eca-25de-4391-81a9-236eeefdd20b";
+
+    private Fixtures() {}
+
+    static PropertiesConfig config() {
+        PropertiesConfig.Folio.ItemNotes itemNotes = new PropertiesConfig.Folio.ItemNotes();
+        itemNotes.setLostItemWorkflowTag(WORKFLOW_TAG_NOTE_TYPE);
+        itemNotes.setLostItemWorkflowComment(WORKFLOW_COMMENT_NOTE_TYPE);
+        itemNotes.setLostItemWorkflowPatronRequesting(PATRON_REQUESTING_NOTE_TYPE);
+        itemNotes.setLegacyCirculationCount(LEGACY_CIRCULATION_COUNT_NOTE_TYPE);
+
+        PropertiesConfig.Folio folio = new PropertiesConfig.Folio();
+        folio.setItemNotes(itemNotes);
+        folio.setNewLostItemsStatuses(new String[] { "Declared lost", "Aged to lost", "Long missing" });
+        folio.setNewLostItemsPatronRequestingOnly(true);
+        folio.setStatisticalCodeInWorkflow(IN_WORKFLOW_CODE);
+        folio.setStatisticalCodeDamagedBeyondRepair(DAMAGED_BEYOND_REPAIR_CODE);
+        folio.setInstanceStatusWithdrawn("daf2681c-25af-4202-a3fa-e58fdf806183");
+
+        PropertiesConfig.WorkflowServer workflowServer = new PropertiesConfig.WorkflowServer();
+        workflowServer.setApprovedStatus("Approved");
+        workflowServer.setDeniedStatus("Denied");
+
+        PropertiesConfig config = new PropertiesConfig();
+        config.setFolio(folio);
+        config.setWorkflowServer(workflowServer);
+        return config;
+    }
+
+    static Map<String, String> retentionAgreementCodes() {
+        Map<String, String> codes = new HashMap<String, String>();
+        codes.put(RETENTION_AGREEMENT_CODE, "EAST");
+        return codes;
+    }
+
+    static JSONObject load(String name) throws IOException {
+        try (InputStream in = Fixtures.class.getResourceAsStream("/fixtures/" + name)) {
+            if (in == null) {
+                throw new IOException("No fixture " + name);
+            }
+            return new JSONObject(new String(in.readAllBytes(), StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * @return Items in the workflow, as FOLIO's item search would return them.  Every other item
+     *   has a patron requesting it.
+     */
+    static List<JSONObject> items(int count) throws IOException {
+        String template = load("inventory-item.json").toString();
+        List<JSONObject> items = new ArrayList<JSONObject>(count);
+        for (int i = 0; i < count; i++) {
+            JSONObject item = new JSONObject(template);
+            item.put("id", uuid("item", i));
+            item.put("hrid", String.format("it%011d", i));
+            item.put("barcode", String.valueOf(39151000000000L + i));
+            item.put("holdingsRecordId", uuid("holdings", i));
+            item.getJSONArray("statisticalCodeIds").put(IN_WORKFLOW_CODE);
+            JSONArray notes = item.getJSONArray("notes");
+            notes.put(note(WORKFLOW_TAG_NOTE_TYPE, String.valueOf(100000 + i)));
+            if (i % 2 == 0) {
+                notes.put(note(PATRON_REQUESTING_NOTE_TYPE, "patron" + i));
+            }
+            items.add(item);
+        }
+        return items;
+    }
+
+    /**
+     * @return A page of items as the body of a /inventory/items response.
+     */
+    static byte[] itemsPage(int count) throws IOException {
+        JSONObject page = new JSONObject();
+        page.put("items", new JSONArray(items(count)));
+        page.put("totalRecords", count);
+        return page.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Build a holdings record and instance for each item, keyed by id.
+     */
+    static void loadParents(List<JSONObject> items, Map<String, JSONObject> holdings, 
+        Map<String, JSONObject> instances) throws IOException {
+
+        String holdingsTemplate = load("holdings-record.json").toString();
+        String instanceTemplate = load("instance.json").toString();
+        for (int i = 0; i < items.size(); i++) {
+            String holdingsRecordId = items.get(i).getString("holdingsRecordId");
+            String instanceId = uuid("instance", i);
+            JSONObject holdingsRecord = new JSONObject(holdingsTemplate);
+            holdingsRecord.put("id", holdingsRecordId);
+            holdingsRecord.put("instanceId", instanceId);
+            holdings.put(holdingsRecordId, holdingsRecord);
+            JSONObject instance = new JSONObject(instanceTemplate);
+            instance.put("id", instanceId);
+            instance.put("hrid", String.format("in%011d", i));
+            instances.put(instanceId, instance);
+        }
+    }
+
+    private static JSONObject note(String typeId, String text) {
+        JSONObject note = new JSONObject();
+        note.put("itemNoteTypeId", typeId);
+        note.put("note", text);
+        note.put("staffOnly", true);
+        return note;
+    }
+
+    private static String uuid(String kind, int i) {
+        return UUID.nameUUIDFromBytes((kind + i).getBytes(StandardCharsets.UTF_8)).toString();
+    }
+
+}
@@ -0,0 +1,77 @@
+package edu.lehigh.libraries.purchase_request.lost_items_client.service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import edu.lehigh.libraries.purchase_request.lost_items_client.config.PropertiesConfig;
+import edu.lehigh.libraries.purchase_request.model.FolioItem;
+
+/**
+ * Turning a page of new lost items into purchase requests: parseItem and the whole 
+ * parseItemAdditionalFields chain.  Holdings, instances and circulation counts come from 
+ * the caches, as they do after a page is prefetched, so no FOLIO calls are made.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ItemParsingBenchmark {
+
+    @Param({ "10", "50", "1000" })
+    public int pageSize;
+
+    private MonitorNewLostItemsService service;
+    private List<FolioItem> items;
+
+    @Setup
+    public void setUp() throws Exception {
+        PropertiesConfig config = Fixtures.config();
+        service = new MonitorNewLostItemsService(config);
+        service.retentionAgreementCodes = Fixtures.retentionAgreementCodes();
+        service.circulationCounts = new CirculationCountProvider(null, null, config) {
+            @Override
+            int getCount(String itemId) {
+                return 17;
+            }
+        };
+
+        List<JSONObject> itemRecords = Fixtures.items(pageSize);
+        Map<String, JSONObject> holdings = new HashMap<String, JSONObject>();
+        Map<String, JSONObject> instances = new HashMap<String, JSONObject>();
+        Fixtures.loadParents(itemRecords, holdings, instances);
+        items = new ArrayList<FolioItem>();
+        for (JSONObject item : itemRecords) {
+            items.add(FolioItem.fromJson(item));
+        }
+        service.recordCache = new InventoryRecordCache(config);
+        holdings.forEach(service.recordCache.getHoldings()::put);
+        instances.forEach(service.recordCache.getInstances()::put);
+    }
+
+    @Benchmark
+    public void parsePage(Blackhole blackhole) {
+        for (FolioItem item : items) {
+            blackhole.consume(service.parseItemAsPurchaseRequest(item));
+        }
+    }
+
+}
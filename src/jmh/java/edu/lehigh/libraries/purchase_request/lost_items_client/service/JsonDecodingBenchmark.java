@@ -0,0 +1,65 @@
+package edu.lehigh.libraries.purchase_request.lost_items_client.service;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import edu.lehigh.libraries.purchase_request.connection.JsonCodec;
+
+/**
+ * Decoding a page of /inventory/items, streamed record by record through JsonCodec as org.json
+ * objects or as FolioItems, against reading the whole body into a String and parsing it with org.json.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JsonDecodingBenchmark {
+
+    @Param({ "10", "50", "1000" })
+    public int pageSize;
+
+    private JsonCodec codec;
+    private byte[] page;
+
+    @Setup
+    public void setUp() throws Exception {
+        codec = new JsonCodec(new ObjectMapper());
+        page = Fixtures.itemsPage(pageSize);
+    }
+
+    @Benchmark
+    public int streamWithJsonCodec(Blackhole blackhole) throws IOException {
+        return codec.readArray(new ByteArrayInputStream(page), "items", blackhole::consume);
+    }
+
+    @Benchmark
+    public int streamItemsWithJsonCodec(Blackhole blackhole) throws IOException {
+        return codec.readItems(new ByteArrayInputStream(page), "items", blackhole::consume);
+    }
+
+    @Benchmark
+    public JSONObject parseStringWithOrgJson() {
+        return new JSONObject(new String(page, StandardCharsets.UTF_8));
+    }
+
+}
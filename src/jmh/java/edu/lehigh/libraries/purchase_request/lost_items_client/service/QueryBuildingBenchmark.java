@@ -0,0 +1,62 @@
+package edu.lehigh.libraries.purchase_request.lost_items_client.service;
+
+import java.time.Instant;
+import java.util.Collections;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Building the CQL for the new lost items query.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class QueryBuildingBenchmark {
+
+    private MonitorNewLostItemsService service;
+    private Set<Shard> someShards;
+    private Instant updatedSince;
+
+    @Setup
+    public void setUp() throws Exception {
+        service = new MonitorNewLostItemsService(Fixtures.config());
+        someShards = new TreeSet<Shard>(Shard.all(16).subList(0, 4));
+        updatedSince = Instant.parse("2024-01-01T00:00:00Z");
+    }
+
+    @Benchmark
+    public String lostOrDamagedPhrase() {
+        return service.buildLostOrDamagedPhrase();
+    }
+
+    @Benchmark
+    public String patronRequestingPhrase() {
+        return service.buildPatronRequestingPhrase();
+    }
+
+    @Benchmark
+    public String newLostItemsQuery() {
+        return service.buildNewLostItemsQuery(null, Collections.singleton(Shard.ALL));
+    }
+
+    @Benchmark
+    public String shardedIncrementalQuery() {
+        return service.buildNewLostItemsQuery(updatedSince, someShards);
+    }
+
+}
@@ -0,0 +1,331 @@
+package edu.lehigh.libraries.purchase_request.loadtest;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * Just enough CQL to answer the queries the client sends: terms joined by and, or and not
+ * (equal precedence, left to right), parentheses, the relations = == <> < <= > >=, quoted or
+ * bare values with * wildcards, value lists like id==("a" or "b"), and a sortby clause.
+ *
+ * A term matches a record if any value at the index path matches.  Arrays along the path are
+ * flattened, and an object at the end of the path matches on any of the values inside it,
+ * much as FOLIO's full-text matching of JSON fields does.
+ */
+public class Cql {
+
+    interface Node {
+        boolean matches(JSONObject record);
+    }
+
+    /**
+     * A term on one index.  Several values mean any of them may match.
+     */
+    static class Term implements Node {
+        final String index;
+        final String relation;
+        final List<String> values;
+        private final String[] path;
+        private final List<Pattern> patterns = new ArrayList<Pattern>();
+
+        Term(String index, String relation, List<String> values) {
+            this.index = index;
+            this.relation = relation;
+            this.values = values;
+            this.path = index.split("\\.");
+            for (String value : values) {
+                patterns.add(wildcard(value, "=".equals(relation)));
+            }
+        }
+
+        boolean isExact() {
+            return "==".equals(relation) && values.stream().noneMatch(value -> value.contains("*"));
+        }
+
+        @Override
+        public boolean matches(JSONObject record) {
+            List<String> found = new ArrayList<String>();
+            collect(record, path, 0, found);
+            for (String actual : found) {
+                for (int i = 0; i < values.size(); i++) {
+                    if (compare(actual, values.get(i), patterns.get(i))) {
+                        return true;
+                    }
+                }
+            }
+            return "<>".equals(relation) && found.isEmpty();
+        }
+
+        private boolean compare(String actual, String expected, Pattern pattern) {
+            switch (relation) {
+                case "==":
+                case "=":
+                    return pattern.matcher(actual).matches();
+                case "<>":
+                    return !pattern.matcher(actual).matches();
+                case "<":
+                    return actual.compareTo(expected) < 0;
+                case "<=":
+                    return actual.compareTo(expected) <= 0;
+                case ">":
+                    return actual.compareTo(expected) > 0;
+                case ">=":
+                    return actual.compareTo(expected) >= 0;
+                default:
+                    throw new IllegalArgumentException("Unsupported relation " + relation);
+            }
+        }
+
+        private static Pattern wildcard(String value, boolean ignoreCase) {
+            StringBuilder regex = new StringBuilder();
+            for (String part : value.split("\\*", -1)) {
+                if (regex.length() > 0 || value.startsWith("*")) {
+                    regex.append(".*");
+                }
+                regex.append(Pattern.quote(part));
+            }
+            return Pattern.compile(regex.toString(), ignoreCase ? Pattern.CASE_INSENSITIVE : 0);
+        }
+
+        private static void collect(Object value, String[] path, int depth, List<String> found) {
+            if (value == null || value == JSONObject.NULL) {
+                return;
+            }
+            if (value instanceof JSONArray) {
+                for (Object element : (JSONArray)value) {
+                    collect(element, path, depth, found);
+                }
+            }
+            else if (depth < path.length) {
+                if (value instanceof JSONObject) {
+                    collect(((JSONObject)value).opt(path[depth]), path, depth + 1, found);
+                }
+            }
+            else if (value instanceof JSONObject) {
+                JSONObject object = (JSONObject)value;
+                for (String key : object.keySet()) {
+                    collect(object.get(key), path, depth, found);
+                }
+            }
+            else {
+                found.add(String.valueOf(value));
+            }
+        }
+    }
+
+    static class Bool implements Node {
+        final String operator;
+        final Node left;
+        final Node right;
+
+        Bool(String operator, Node left, Node right) {
+            this.operator = operator;
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        public boolean matches(JSONObject record) {
+            switch (operator) {
+                case "and":
+                    return left.matches(record) && right.matches(record);
+                case "or":
+                    return left.matches(record) || right.matches(record);
+                default:
+                    return left.matches(record) && !right.matches(record);
+            }
+        }
+    }
+
+    /**
+     * A parsed query.
+     */
+    public static class Query {
+        private final Node root;
+        private final String sortBy;
+
+        Query(Node root, String sortBy) {
+            this.root = root;
+            this.sortBy = sortBy;
+        }
+
+        public boolean matches(JSONObject record) {
+            return root == null || root.matches(record);
+        }
+
+        /**
+         * @return The index to sort by, or null.
+         */
+        public String getSortBy() {
+            return sortBy;
+        }
+
+        /**
+         * A record can only match if it matches the leftmost term of the top-level and/not chain.
+         * When that term is an exact match, its values can be looked up in an index instead of
+         * scanning every record.
+         *
+         * @return That term, or null if there is no such exact term.
+         */
+        public Term leadingExactTerm() {
+            Node node = root;
+            while (node instanceof Bool && !"or".equals(((Bool)node).operator)) {
+                node = ((Bool)node).left;
+            }
+            return node instanceof Term && ((Term)node).isExact() ? (Term)node : null;
+        }
+    }
+
+    private static final String[] RELATIONS = { "==", "<>", "<=", ">=", "=", "<", ">" };
+
+    private final String text;
+    private int position = 0;
+
+    private Cql(String text) {
+        this.text = text;
+    }
+
+    public static Query parse(String text) {
+        if (text == null || text.isBlank()) {
+            return new Query(null, null);
+        }
+        Cql parser = new Cql(text);
+        Node root = parser.parseExpression();
+        String sortBy = null;
+        parser.skipSpace();
+        if (parser.acceptWord("sortby")) {
+            sortBy = parser.readWord();
+            // Sort modifiers such as /sort.descending are not needed.
+            parser.position = text.length();
+        }
+        parser.skipSpace();
+        if (parser.position < text.length()) {
+            throw new IllegalArgumentException("Unexpected text at " + parser.position + " in: " + text);
+        }
+        return new Query(root, sortBy);
+    }
+
+    private Node parseExpression() {
+        Node node = parsePrimary();
+        while (true) {
+            skipSpace();
+            String operator = null;
+            for (String candidate : new String[] { "and", "or", "not" }) {
+                if (acceptWord(candidate)) {
+                    operator = candidate;
+                    break;
+                }
+            }
+            if (operator == null) {
+                return node;
+            }
+            node = new Bool(operator, node, parsePrimary());
+        }
+    }
+
+    private Node parsePrimary() {
+        skipSpace();
+        if (accept("(")) {
+            Node node = parseExpression();
+            skipSpace();
+            expect(")");
+            return node;
+        }
+        String index = readWord();
+        skipSpace();
+        String relation = null;
+        for (String candidate : RELATIONS) {
+            if (accept(candidate)) {
+                relation = candidate;
+                break;
+            }
+        }
+        if (relation == null) {
+            throw new IllegalArgumentException("Expected a relation at " + position + " in: " + text);
+        }
+        skipSpace();
+        List<String> values = new ArrayList<String>();
+        if (accept("(")) {
+            do {
+                skipSpace();
+                values.add(readValue());
+                skipSpace();
+            } while (acceptWord("or"));
+            expect(")");
+        }
+        else {
+            values = Collections.singletonList(readValue());
+        }
+        return new Term(index, relation, values);
+    }
+
+    private String readValue() {
+        if (position < text.length() && text.charAt(position) == '"') {
+            StringBuilder value = new StringBuilder();
+            position++;
+            while (position < text.length() && text.charAt(position) != '"') {
+                char c = text.charAt(position++);
+                if (c == '\\' && position < text.length()) {
+                    c = text.charAt(position++);
+                }
+                value.append(c);
+            }
+            expect("\"");
+            return value.toString();
+        }
+        return readWord();
+    }
+
+    private String readWord() {
+        skipSpace();
+        int start = position;
+        while (position < text.length()) {
+            char c = text.charAt(position);
+            if (Character.isWhitespace(c) || "()\"=<>".indexOf(c) >= 0) {
+                break;
+            }
+            position++;
+        }
+        if (start == position) {
+            throw new IllegalArgumentException("Expected a word at " + position + " in: " + text);
+        }
+        return text.substring(start, position);
+    }
+
+    private boolean acceptWord(String word) {
+        int end = position + word.length();
+        if (end <= text.length() && text.substring(position, end).toLowerCase(Locale.ROOT).equals(word)
+            && (end == text.length() || Character.isWhitespace(text.charAt(end)) || text.charAt(end) == '(')) {
+            position = end;
+            return true;
+        }
+        return false;
+    }
+
+    private boolean accept(String token) {
+        if (text.startsWith(token, position)) {
+            position += token.length();
+            return true;
+        }
+        return false;
+    }
+
+    private void expect(String token) {
+        if (!accept(token)) {
+            throw new IllegalArgumentException("Expected " + token + " at " + position + " in: " + text);
+        }
+    }
+
+    private void skipSpace() {
+        while (position < text.length() && Character.isWhitespace(text.charAt(position))) {
+            position++;
+        }
+    }
+
+}
@@ -0,0 +1,255 @@
+package edu.lehigh.libraries.purchase_request.loadtest;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import edu.lehigh.libraries.purchase_request.lost_items_client.LostItemsApplication;
+import edu.lehigh.libraries.purchase_request.lost_items_client.service.MonitorNewLostItemsService;
+import edu.lehigh.libraries.purchase_request.lost_items_client.service.MonitorWorkflowService;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Runs both monitors end to end against a StandInServer and reports, for each run, the wall
+ * time, the calls made per item handled, the peak heap, and where FOLIO's concurrency limits ended up.
+ *
+ * With loadtest.nodes above 1, that many clients run side by side with sharding enabled, sharing
+ * one lease file, and each run triggers the monitor on all of them at once.  The stand-in server
+ * counts any item submitted more than once.
+ *
+ * Set up with system properties:
+ *   loadtest.items, loadtest.lost-ratio, loadtest.copies-per-holding, loadtest.seed
+ *   loadtest.latency-ms, loadtest.jitter-ms, loadtest.error-rate, loadtest.error-status, loadtest.decided-ratio
+ *   loadtest.runs, loadtest.nodes
+ * Any lost-items-client.* system property overrides the client configuration the harness uses.
+ *
+ * The stand-in server and its catalogue share the heap with the client, so the heap in use
+ * before each run is reported as well; the client's own share is the difference.
+ */
+public class LoadTestHarness {
+
+    private static final String NEW_LOST_ITEMS = "new-lost-items";
+    private static final String WORKFLOW_DECISIONS = "workflow-decisions";
+
+    // Short, so that the shards settle among the nodes quickly.
+    private static final int SHARD_LEASE_SECONDS = 3;
+
+    // Counters the stand-in server keeps that are not calls.
+    private static final List<String> NOT_CALLS = List.of("injected errors", "duplicate submissions");
+
+    private final StandInServer server;
+    private final List<ConfigurableApplicationContext> contexts;
+    private final List<MeterRegistry> registries;
+
+    private LoadTestHarness(StandInServer server, List<ConfigurableApplicationContext> contexts) {
+        this.server = server;
+        this.contexts = contexts;
+        this.registries = contexts.stream()
+            .map(context -> context.getBean(MeterRegistry.class))
+            .collect(Collectors.toList());
+    }
+
+    public static void main(String[] args) throws Exception {
+        int items = Integer.getInteger("loadtest.items", 100000);
+        double lostRatio = doubleProperty("loadtest.lost-ratio", 0.02);
+        int copiesPerHolding = Integer.getInteger("loadtest.copies-per-holding", 2);
+        long seed = Long.getLong("loadtest.seed", 42);
+        int runs = Integer.getInteger("loadtest.runs", 2);
+        int nodes = Integer.getInteger("loadtest.nodes", 1);
+
+        StandInServer.Options options = new StandInServer.Options();
+        options.setLatencyMillis(Integer.getInteger("loadtest.latency-ms", 5));
+        options.setLatencyJitterMillis(Integer.getInteger("loadtest.jitter-ms", 5));
+        options.setErrorRate(doubleProperty("loadtest.error-rate", 0));
+        options.setErrorStatus(Integer.getInteger("loadtest.error-status", 500));
+        options.setDecidedRatio(doubleProperty("loadtest.decided-ratio", 0.5));
+
+        long start = System.nanoTime();
+        SyntheticCatalogue catalogue = SyntheticCatalogue.generate(items, lostRatio, copiesPerHolding, seed);
+        System.out.printf("Generated %d items (%d lost) on %d holdings in %d ms.%n", catalogue.getItems().size(),
+            catalogue.getLostItemCount(), catalogue.getHoldings().size(), (System.nanoTime() - start) / 1000000);
+
+        StandInServer server = new StandInServer(catalogue, options);
+        server.start();
+        List<ConfigurableApplicationContext> contexts = new ArrayList<ConfigurableApplicationContext>();
+        try {
+            Path leaseFile = Files.createTempDirectory("lost-items-loadtest-leases").resolve("leases.properties");
+            for (int node = 1; node <= nodes; node++) {
+                contexts.add(startClient(server, nodes, node, leaseFile));
+            }
+            if (nodes > 1) {
+                // Let each node's lease renewal run a few times, so the shards settle evenly among them.
+                Thread.sleep(SHARD_LEASE_SECONDS * 1000 + 500);
+            }
+            LoadTestHarness harness = new LoadTestHarness(server, contexts);
+            System.out.printf("%-4s %-20s %8s %6s %9s %10s %9s %10s %10s%n", "run", "monitor", "wall ms",
+                "items", "calls", "calls/item", "errors", "heap MB", "peak MB");
+            for (int run = 1; run <= runs; run++) {
+                harness.measure(run, NEW_LOST_ITEMS, 
+                    context -> context.getBean(MonitorNewLostItemsService.class)::triggerMonitor);
+                harness.measure(run, WORKFLOW_DECISIONS, 
+                    context -> context.getBean(MonitorWorkflowService.class)::triggerMonitor);
+            }
+        }
+        finally {
+            contexts.forEach(ConfigurableApplicationContext::close);
+            server.stop();
+        }
+    }
+
+    private static ConfigurableApplicationContext startClient(StandInServer server, int nodes, int node, 
+        Path leaseFile) throws Exception {
+
+        // Devtools would otherwise restart the client in its own class loader.
+        System.setProperty("spring.devtools.restart.enabled", "false");
+
+        Map<String, Object> properties = new HashMap<String, Object>();
+        properties.put("lost-items-client.enabled", "true");
+        properties.put("lost-items-client.schedule.new-lost-items", "-");
+        properties.put("lost-items-client.schedule.workflow-decisions", "-");
+        properties.put("lost-items-client.state-directory", Files.createTempDirectory("lost-items-loadtest").toString());
+        properties.put("lost-items-client.folio.username", "loadtest");
+        properties.put("lost-items-client.folio.password", "loadtest");
+        properties.put("lost-items-client.folio.tenantId", "loadtest");
+        properties.put("lost-items-client.folio.okapiBaseUrl", server.getBaseUrl());
+        properties.put("lost-items-client.folio.new-lost-items-statuses", SyntheticCatalogue.LOST_STATUSES);
+        properties.put("lost-items-client.folio.page-fetch-parallelism", "4");
+        properties.put("lost-items-client.folio.instance-status-withdrawn", SyntheticCatalogue.INSTANCE_STATUS_WITHDRAWN);
+        properties.put("lost-items-client.folio.statistical-code-in-workflow", SyntheticCatalogue.IN_WORKFLOW_CODE);
+        properties.put("lost-items-client.folio.statistical-code-type-retention-agreement",
+            SyntheticCatalogue.RETENTION_AGREEMENT_CODE_TYPE);
+        properties.put("lost-items-client.folio.item-notes.lost-item-workflow-tag", SyntheticCatalogue.WORKFLOW_TAG_NOTE_TYPE);
+        properties.put("lost-items-client.folio.item-notes.lost-item-workflow-comment",
+            SyntheticCatalogue.WORKFLOW_COMMENT_NOTE_TYPE);
+        properties.put("lost-items-client.folio.item-notes.lost-item-workflow-patron-requesting",
+            SyntheticCatalogue.PATRON_REQUESTING_NOTE_TYPE);
+        properties.put("lost-items-client.folio.item-notes.legacy-circulation-count",
+            SyntheticCatalogue.LEGACY_CIRCULATION_COUNT_NOTE_TYPE);
+        properties.put("lost-items-client.workflow-server.base-url", server.getBaseUrl());
+        properties.put("lost-items-client.workflow-server.username", "loadtest");
+        properties.put("lost-items-client.workflow-server.password", "loadtest");
+        properties.put("lost-items-client.workflow-server.approved-status", "Approved");
+        properties.put("lost-items-client.workflow-server.denied-status", "Denied");
+        properties.put("logging.level.edu.lehigh.libraries.purchase_request", "WARN");
+        properties.put("spring.main.banner-mode", "off");
+        if (nodes > 1) {
+            properties.put("lost-items-client.sharding.enabled", "true");
+            properties.put("lost-items-client.sharding.node-id", "node-" + node);
+            properties.put("lost-items-client.sharding.lease-file", leaseFile.toString());
+            properties.put("lost-items-client.sharding.lease-seconds", String.valueOf(SHARD_LEASE_SECONDS));
+        }
+
+        return new SpringApplicationBuilder(LostItemsApplication.class)
+            .web(WebApplicationType.NONE)
+            .properties(properties)
+            .run();
+    }
+
+    private void measure(int run, String monitor, Function<ConfigurableApplicationContext, Runnable> trigger) {
+        System.gc();
+        long heapBefore = heapUsed();
+        resetPeaks();
+        server.resetCounters();
+
+        long start = System.nanoTime();
+        if (contexts.size() == 1) {
+            trigger.apply(contexts.get(0)).run();
+        }
+        else {
+            ExecutorService nodeThreads = Executors.newFixedThreadPool(contexts.size());
+            CompletableFuture.allOf(contexts.stream()
+                .map(context -> CompletableFuture.runAsync(trigger.apply(context), nodeThreads))
+                .toArray(CompletableFuture[]::new)).join();
+            nodeThreads.shutdown();
+        }
+        long wallMillis = (System.nanoTime() - start) / 1000000;
+
+        long peak = peakHeapUsed();
+        Map<String, Long> counters = server.getCounters();
+        long calls = counters.entrySet().stream()
+            .filter(entry -> !NOT_CALLS.contains(entry.getKey()))
+            .mapToLong(Map.Entry::getValue)
+            .sum();
+        long errors = counters.getOrDefault("injected errors", 0L);
+        int itemsFound = lastRunItems(monitor);
+
+        System.out.printf("%-4d %-20s %8d %6d %9d %10s %9d %10d %10d%n", run, monitor, wallMillis, itemsFound,
+            calls, itemsFound == 0 ? "-" : String.format("%.1f", (double)calls / itemsFound), errors,
+            heapBefore >> 20, peak >> 20);
+        counters.forEach((endpoint, count) -> System.out.printf("       %-60s %9d%n", endpoint, count));
+        for (int node = 0; node < registries.size(); node++) {
+            String prefix = registries.size() == 1 ? "" : "node " + (node + 1) + " ";
+            for (String budget : new String[] { "read", "write" }) {
+                System.out.printf("       %-60s %9d%n", prefix + "FOLIO " + budget + " limit at end",
+                    concurrencyLimit(registries.get(node), budget));
+            }
+            if (registries.size() > 1) {
+                System.out.printf("       %-60s %9d%n", prefix + "items", lastRunItems(registries.get(node), monitor));
+            }
+        }
+    }
+
+    private static int concurrencyLimit(MeterRegistry registry, String budget) {
+        Gauge gauge = registry.find("folio.client.concurrency.limit").tags("budget", budget).gauge();
+        return gauge == null ? 0 : (int)gauge.value();
+    }
+
+    private int lastRunItems(String monitor) {
+        return registries.stream().mapToInt(registry -> lastRunItems(registry, monitor)).sum();
+    }
+
+    private static int lastRunItems(MeterRegistry registry, String monitor) {
+        Gauge gauge = registry.find("lost_items.monitor.last_run.items")
+            .tags("monitor", monitor, "result", "found")
+            .gauge();
+        return gauge == null ? 0 : (int)gauge.value();
+    }
+
+    private static long heapUsed() {
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    private static void resetPeaks() {
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+            }
+        }
+    }
+
+    /**
+     * Sums the peaks of the heap pools.  They need not peak at the same moment, so this can
+     * overstate the true peak somewhat, but it never misses one.
+     */
+    private static long peakHeapUsed() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        return peak;
+    }
+
+    private static double doubleProperty(String name, double defaultValue) {
+        String value = System.getProperty(name);
+        return value == null ? defaultValue : Double.parseDouble(value);
+    }
+
+}
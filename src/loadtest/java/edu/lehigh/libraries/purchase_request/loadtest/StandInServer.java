@@ -0,0 +1,423 @@
+package edu.lehigh.libraries.purchase_request.loadtest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import lombok.Getter;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Serves the FOLIO and Workflow Proxy Server endpoints the client uses, from a synthetic
+ * catalogue, with optional latency and injected errors.  Requests are counted by method and
+ * endpoint, with record ids and request keys folded together.
+ *
+ * Inventory and storage paths serve the same records.  Requests in the workflow are decided
+ * the first time they are looked up, for a configurable share of them.
+ */
+@Slf4j
+public class StandInServer {
+
+    @Getter @Setter
+    public static class Options {
+
+        /**
+         * Delay added to every request but login.
+         */
+        private int latencyMillis = 0;
+
+        /**
+         * Up to this much more delay, at random.
+         */
+        private int latencyJitterMillis = 0;
+
+        /**
+         * Share of requests, other than login, answered with an injected error.
+         */
+        private double errorRate = 0;
+
+        /**
+         * Status of injected errors, e.g. 503 for ones the client retries.
+         */
+        private int errorStatus = 500;
+
+        /**
+         * Share of purchase requests that have a decision when the client checks.
+         */
+        private double decidedRatio = 0.5;
+
+        private int threads = 32;
+    }
+
+    private static final Pattern UUID_PATTERN =
+        Pattern.compile("[0-9a-fA-F]{8}-[0-9a-fA-F]{4}-[0-9a-fA-F]{4}-[0-9a-fA-F]{4}-[0-9a-fA-F]{12}");
+    private static final Pattern RECORD_PATH = Pattern.compile("(/[a-z-]+/[a-zA-Z-]+)/(" + UUID_PATTERN + ")");
+    private static final Pattern PURCHASE_REQUEST_PATH = Pattern.compile("/purchase-requests/([^/]+)");
+
+    private final SyntheticCatalogue catalogue;
+    private final Options options;
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final Map<String, SyntheticCatalogue.Store> stores = new HashMap<String, SyntheticCatalogue.Store>();
+    private final Map<String, SyntheticCatalogue.Store> batchStores = new HashMap<String, SyntheticCatalogue.Store>();
+    private final Map<String, LongAdder> counters = new ConcurrentHashMap<String, LongAdder>();
+    private final Map<String, JSONObject> purchaseRequests = new ConcurrentHashMap<String, JSONObject>();
+    private final AtomicLong nextPurchaseRequestId = new AtomicLong(1);
+    private final Set<String> submittedItemIds = ConcurrentHashMap.newKeySet();
+
+    public StandInServer(SyntheticCatalogue catalogue, Options options) throws IOException {
+        this.catalogue = catalogue;
+        this.options = options;
+
+        stores.put("/inventory/items", catalogue.getItems());
+        stores.put("/item-storage/items", catalogue.getItems());
+        stores.put("/holdings-storage/holdings", catalogue.getHoldings());
+        stores.put("/inventory/instances", catalogue.getInstances());
+        stores.put("/instance-storage/instances", catalogue.getInstances());
+        batchStores.put("/item-storage/batch/synchronous", catalogue.getItems());
+        batchStores.put("/holdings-storage/batch/synchronous", catalogue.getHoldings());
+        batchStores.put("/instance-storage/batch/synchronous", catalogue.getInstances());
+
+        // Without this, small responses wait on delayed ACKs and every call takes tens of milliseconds.
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        executor = Executors.newFixedThreadPool(options.getThreads());
+        server.setExecutor(executor);
+        server.createContext("/", this::handle);
+    }
+
+    public void start() {
+        server.start();
+        log.info("Stand-in server listening on port " + getPort());
+    }
+
+    public void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    public String getBaseUrl() {
+        return "http://localhost:" + getPort();
+    }
+
+    /**
+     * @return Requests so far, by method and endpoint, in endpoint order.
+     */
+    public Map<String, Long> getCounters() {
+        Map<String, Long> snapshot = new TreeMap<String, Long>();
+        counters.forEach((endpoint, count) -> snapshot.put(endpoint, count.sum()));
+        return snapshot;
+    }
+
+    public void resetCounters() {
+        counters.clear();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            String method = exchange.getRequestMethod();
+            String path = exchange.getRequestURI().getPath();
+            counters.computeIfAbsent(method + " " + endpointOf(path), key -> new LongAdder()).increment();
+
+            if ("POST".equals(method) && "/authn/login".equals(path)) {
+                login(exchange);
+                return;
+            }
+            if (injectLatencyAndErrors(exchange)) {
+                return;
+            }
+            route(exchange, method, path);
+        }
+        catch (Exception e) {
+            log.warn("Stand-in server failed on " + exchange.getRequestURI(), e);
+            send(exchange, 500, "text/plain", String.valueOf(e.getMessage()));
+        }
+        finally {
+            exchange.close();
+        }
+    }
+
+    private void route(HttpExchange exchange, String method, String path) throws IOException {
+        Map<String, String> parameters = parameters(exchange);
+        SyntheticCatalogue.Store store = stores.get(path);
+        Matcher recordPath = RECORD_PATH.matcher(path);
+        Matcher purchaseRequestPath = PURCHASE_REQUEST_PATH.matcher(path);
+
+        if (store != null && "GET".equals(method)) {
+            search(exchange, store, parameters);
+        }
+        else if (recordPath.matches() && stores.containsKey(recordPath.group(1))) {
+            SyntheticCatalogue.Store recordStore = stores.get(recordPath.group(1));
+            if ("GET".equals(method)) {
+                JSONObject record = recordStore.get(recordPath.group(2));
+                if (record == null) {
+                    send(exchange, 404, "text/plain", "Not found");
+                }
+                else {
+                    sendJson(exchange, 200, record);
+                }
+            }
+            else if ("PUT".equals(method)) {
+                int status = update(recordStore, List.of(new JSONObject(body(exchange))));
+                send(exchange, status == 201 ? 204 : status, "text/plain", "");
+            }
+            else {
+                send(exchange, 405, "text/plain", "Method not allowed");
+            }
+        }
+        else if (batchStores.containsKey(path) && "POST".equals(method)) {
+            SyntheticCatalogue.Store batchStore = batchStores.get(path);
+            JSONArray records = new JSONObject(body(exchange)).getJSONArray(batchStore.getArrayProperty());
+            List<JSONObject> list = new ArrayList<JSONObject>();
+            records.forEach(record -> list.add((JSONObject)record));
+            send(exchange, update(batchStore, list), "text/plain", "");
+        }
+        else if ("/loan-storage/loans".equals(path)) {
+            loans(exchange, parameters);
+        }
+        else if ("/audit-data/circulation/logs".equals(path)) {
+            circulationLogs(exchange, parameters);
+        }
+        else if ("/statistical-codes".equals(path)) {
+            JSONArray codes = new JSONArray().put(new JSONObject()
+                .put("id", SyntheticCatalogue.RETENTION_AGREEMENT_CODE)
+                .put("name", "EAST")
+                .put("statisticalCodeTypeId", SyntheticCatalogue.RETENTION_AGREEMENT_CODE_TYPE));
+            sendJson(exchange, 200, new JSONObject().put("statisticalCodes", codes).put("totalRecords", 1));
+        }
+        else if ("/purchase-requests".equals(path) && "POST".equals(method)) {
+            submitPurchaseRequest(exchange);
+        }
+        else if (purchaseRequestPath.matches() && "GET".equals(method)) {
+            getPurchaseRequest(exchange, purchaseRequestPath.group(1));
+        }
+        else {
+            send(exchange, 404, "text/plain", "No stand-in for " + method + " " + path);
+        }
+    }
+
+    private void login(HttpExchange exchange) throws IOException {
+        long expires = Instant.now().plusSeconds(600).getEpochSecond();
+        String claims = new JSONObject().put("sub", "loadtest").put("exp", expires).toString();
+        String token = "eyJhbGciOiJub25lIn0."
+            + Base64.getUrlEncoder().withoutPadding().encodeToString(claims.getBytes(StandardCharsets.UTF_8))
+            + ".signature";
+        exchange.getResponseHeaders().add("x-okapi-token", token);
+        send(exchange, 201, "application/json", "{}");
+    }
+
+    /**
+     * @return True if the request was answered with an injected error.
+     */
+    private boolean injectLatencyAndErrors(HttpExchange exchange) throws IOException {
+        int delay = options.getLatencyMillis();
+        if (options.getLatencyJitterMillis() > 0) {
+            delay += ThreadLocalRandom.current().nextInt(options.getLatencyJitterMillis() + 1);
+        }
+        if (delay > 0) {
+            try {
+                Thread.sleep(delay);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (options.getErrorRate() > 0 && ThreadLocalRandom.current().nextDouble() < options.getErrorRate()) {
+            counters.computeIfAbsent("injected errors", key -> new LongAdder()).increment();
+            send(exchange, options.getErrorStatus(), "text/plain", "Injected error");
+            return true;
+        }
+        return false;
+    }
+
+    private void search(HttpExchange exchange, SyntheticCatalogue.Store store, Map<String, String> parameters)
+        throws IOException {
+
+        Cql.Query query;
+        try {
+            query = Cql.parse(parameters.get("query"));
+        }
+        catch (IllegalArgumentException e) {
+            send(exchange, 400, "text/plain", e.getMessage());
+            return;
+        }
+        int offset = Integer.parseInt(parameters.getOrDefault("offset", "0"));
+        int limit = Integer.parseInt(parameters.getOrDefault("limit", "10"));
+        SyntheticCatalogue.Store.Page page = store.search(query, offset, limit);
+        JSONObject response = new JSONObject();
+        response.put(store.getArrayProperty(), new JSONArray(page.records));
+        response.put("totalRecords", page.totalRecords);
+        sendJson(exchange, 200, response);
+    }
+
+    /**
+     * Save records, all or none of them.  Any record whose _version is not the current one
+     * fails the whole update with a 409, as FOLIO's optimistic locking does.
+     */
+    private int update(SyntheticCatalogue.Store store, List<JSONObject> records) {
+        synchronized (store) {
+            for (JSONObject record : records) {
+                JSONObject current = store.get(record.optString("id"));
+                if (current != null && record.has("_version")
+                    && !String.valueOf(record.get("_version")).equals(String.valueOf(current.get("_version")))) {
+                    return 409;
+                }
+            }
+            for (JSONObject record : records) {
+                JSONObject current = store.get(record.optString("id"));
+                int version = current == null ? 1 : Integer.parseInt(String.valueOf(current.get("_version"))) + 1;
+                record.put("_version", version);
+                store.put(record);
+            }
+        }
+        return 201;
+    }
+
+    private void loans(HttpExchange exchange, Map<String, String> parameters) throws IOException {
+        Cql.Term term = Cql.parse(parameters.get("query")).leadingExactTerm();
+        List<JSONObject> loans = new ArrayList<JSONObject>();
+        int total = 0;
+        if (term != null && "itemId".equals(term.index)) {
+            for (String itemId : term.values) {
+                int count = catalogue.getLoanCount(itemId);
+                total += count;
+                for (int i = 0; i < count; i++) {
+                    String loanId = UUID.nameUUIDFromBytes((itemId + i).getBytes(StandardCharsets.UTF_8)).toString();
+                    loans.add(new JSONObject().put("id", loanId).put("itemId", itemId).put("action", "checkedout"));
+                }
+            }
+        }
+        int offset = Integer.min(Integer.parseInt(parameters.getOrDefault("offset", "0")), loans.size());
+        int limit = Integer.parseInt(parameters.getOrDefault("limit", "10"));
+        List<JSONObject> page = loans.subList(offset, Integer.min(offset + limit, loans.size()));
+        sendJson(exchange, 200, new JSONObject().put("loans", new JSONArray(page)).put("totalRecords", total));
+    }
+
+    private void circulationLogs(HttpExchange exchange, Map<String, String> parameters) throws IOException {
+        Matcher itemId = UUID_PATTERN.matcher(parameters.getOrDefault("query", ""));
+        int total = itemId.find() ? catalogue.getLoanCount(itemId.group()) : 0;
+        sendJson(exchange, 200, new JSONObject().put("logRecords", new JSONArray()).put("totalRecords", total));
+    }
+
+    private void submitPurchaseRequest(HttpExchange exchange) throws IOException {
+        JSONObject submitted = new JSONObject(body(exchange));
+        String itemId = submitted.optString("existingFolioItemId", null);
+        if (itemId != null && !submittedItemIds.add(itemId)) {
+            counters.computeIfAbsent("duplicate submissions", key -> new LongAdder()).increment();
+        }
+        long id = nextPurchaseRequestId.getAndIncrement();
+        String now = Instant.now().toString();
+        JSONObject purchaseRequest = new JSONObject();
+        for (String field : new String[] { "title", "contributor", "callNumber", "requesterUsername",
+            "requesterComments", "clientName" }) {
+            if (submitted.has(field) && !submitted.isNull(field)) {
+                purchaseRequest.put(field, submitted.get(field));
+            }
+        }
+        purchaseRequest.put("id", id);
+        purchaseRequest.put("key", "LI-" + id);
+        purchaseRequest.put("status", "Requested");
+        purchaseRequest.put("creationDate", now);
+        purchaseRequest.put("updateDate", now);
+        purchaseRequests.put(purchaseRequest.getString("key"), purchaseRequest);
+        sendJson(exchange, 200, purchaseRequest);
+    }
+
+    private void getPurchaseRequest(HttpExchange exchange, String key) throws IOException {
+        JSONObject purchaseRequest = purchaseRequests.computeIfPresent(key, (k, existing) -> {
+            if (!"Requested".equals(existing.getString("status"))
+                || Math.floorMod(k.hashCode(), 1000) >= options.getDecidedRatio() * 1000) {
+                return existing;
+            }
+            JSONObject decided = new JSONObject(existing.toString());
+            decided.put("status", existing.getLong("id") % 2 == 0 ? "Approved" : "Denied");
+            decided.put("updateDate", Instant.now().toString());
+            return decided;
+        });
+        if (purchaseRequest == null) {
+            send(exchange, 404, "text/plain", "Not found");
+        }
+        else {
+            sendJson(exchange, 200, purchaseRequest);
+        }
+    }
+
+    private static String endpointOf(String path) {
+        Matcher purchaseRequest = PURCHASE_REQUEST_PATH.matcher(path);
+        if (purchaseRequest.matches()) {
+            return "/purchase-requests/{key}";
+        }
+        return UUID_PATTERN.matcher(path).replaceAll("{id}");
+    }
+
+    private static Map<String, String> parameters(HttpExchange exchange) {
+        Map<String, String> parameters = new HashMap<String, String>();
+        String rawQuery = exchange.getRequestURI().getRawQuery();
+        if (rawQuery == null) {
+            return parameters;
+        }
+        for (String pair : rawQuery.split("&")) {
+            int equals = pair.indexOf('=');
+            if (equals > 0) {
+                parameters.put(URLDecoder.decode(pair.substring(0, equals), StandardCharsets.UTF_8),
+                    URLDecoder.decode(pair.substring(equals + 1), StandardCharsets.UTF_8));
+            }
+        }
+        return parameters;
+    }
+
+    private static String body(HttpExchange exchange) throws IOException {
+        try (InputStream in = exchange.getRequestBody()) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private static void sendJson(HttpExchange exchange, int status, JSONObject body) throws IOException {
+        send(exchange, status, "application/json", body.toString());
+    }
+
+    private static void send(HttpExchange exchange, int status, String contentType, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        if (status == 204 || bytes.length == 0) {
+            exchange.sendResponseHeaders(status, -1);
+            return;
+        }
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+}
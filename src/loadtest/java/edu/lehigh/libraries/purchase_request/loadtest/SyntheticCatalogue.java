@@ -0,0 +1,286 @@
+package edu.lehigh.libraries.purchase_request.loadtest;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.stream.Collectors;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * A generated FOLIO catalogue of instances, each with one holdings record and some copies,
+ * a share of which are lost.  Records are kept in memory in id order, with exact-match indexes
+ * on the fields the client looks records up by.
+ */
+public class SyntheticCatalogue {
+
+    public static final String IN_WORKFLOW_CODE = "0f4a3e1b-5a0c-4f8e-8a3d-2b1c9d7e6f50";
+    public static final String RETENTION_AGREEMENT_CODE = "b5968c9e-cddc-4576-99e3-8e60aed8b0dd";
+    public static final String RETENTION_AGREEMENT_CODE_TYPE = "2a8e7f3c-1d4b-4c6a-9e8f-7b5d3c1a9e02";
+    public static final String WORKFLOW_TAG_NOTE_TYPE = "4c2d9a7e-8f1b-4e3a-9c6d-5b7a8e9f0a12";
+    public static final String WORKFLOW_COMMENT_NOTE_TYPE = "7e1f3b5d-2a4c-4d6e-8f0a-1b3c5d7e9f24";
+    public static final String PATRON_REQUESTING_NOTE_TYPE = "9a8b7c6d-5e4f-4a3b-8c2d-1e0f9a8b7c36";
+    public static final String LEGACY_CIRCULATION_COUNT_NOTE_TYPE = "8d0a5eca-25de-4391-81a9-236eeefdd20b";
+    public static final String INSTANCE_STATUS_WITHDRAWN = "daf2681c-25af-4202-a3fa-e58fdf806183";
+    public static final String LOST_STATUSES = "Declared lost,Long missing";
+
+    /**
+     * One kind of record, in id order.
+     */
+    public static class Store {
+
+        public static class Page {
+            public final List<JSONObject> records;
+            public final int totalRecords;
+
+            Page(List<JSONObject> records, int totalRecords) {
+                this.records = records;
+                this.totalRecords = totalRecords;
+            }
+        }
+
+        private final String arrayProperty;
+        private final List<String> indexedFields;
+        private final ConcurrentSkipListMap<String, JSONObject> records = new ConcurrentSkipListMap<String, JSONObject>();
+        private final Map<String, Map<String, Set<String>>> indexes = new ConcurrentHashMap<String, Map<String, Set<String>>>();
+
+        Store(String arrayProperty, String... indexedFields) {
+            this.arrayProperty = arrayProperty;
+            this.indexedFields = List.of(indexedFields);
+            for (String field : indexedFields) {
+                indexes.put(field, new ConcurrentHashMap<String, Set<String>>());
+            }
+        }
+
+        public String getArrayProperty() {
+            return arrayProperty;
+        }
+
+        public int size() {
+            return records.size();
+        }
+
+        public JSONObject get(String id) {
+            return records.get(id);
+        }
+
+        /**
+         * Records are replaced, never changed in place, so readers may hold on to one safely.
+         */
+        public synchronized void put(JSONObject record) {
+            String id = record.getString("id");
+            JSONObject old = records.put(id, record);
+            for (String field : indexedFields) {
+                Map<String, Set<String>> index = indexes.get(field);
+                if (old != null && old.has(field)) {
+                    Set<String> ids = index.get(String.valueOf(old.get(field)));
+                    if (ids != null) {
+                        ids.remove(id);
+                    }
+                }
+                if (record.has(field)) {
+                    index.computeIfAbsent(String.valueOf(record.get(field)), key -> ConcurrentHashMap.newKeySet())
+                        .add(id);
+                }
+            }
+        }
+
+        public Page search(Cql.Query query, int offset, int limit) {
+            Collection<JSONObject> candidates = candidates(query);
+            List<JSONObject> matches = candidates.stream()
+                .filter(query::matches)
+                .collect(Collectors.toList());
+            String sortBy = query.getSortBy();
+            if (sortBy != null) {
+                matches.sort(Comparator.comparing(record -> record.optString(sortBy, "")));
+            }
+            int from = Integer.min(offset, matches.size());
+            int to = Integer.min(from + limit, matches.size());
+            return new Page(new ArrayList<JSONObject>(matches.subList(from, to)), matches.size());
+        }
+
+        private Collection<JSONObject> candidates(Cql.Query query) {
+            Cql.Term term = query.leadingExactTerm();
+            if (term == null || !indexes.containsKey(term.index)) {
+                return records.values();
+            }
+            Map<String, Set<String>> index = indexes.get(term.index);
+            List<JSONObject> candidates = new ArrayList<JSONObject>();
+            for (String value : term.values) {
+                for (String id : index.getOrDefault(value, Collections.emptySet())) {
+                    JSONObject record = records.get(id);
+                    if (record != null) {
+                        candidates.add(record);
+                    }
+                }
+            }
+            candidates.sort(Comparator.comparing(record -> record.getString("id")));
+            return candidates;
+        }
+
+    }
+
+    private final Store items = new Store("items", "id", "holdingsRecordId");
+    private final Store holdings = new Store("holdingsRecords", "id", "instanceId");
+    private final Store instances = new Store("instances", "id");
+    private final Map<String, Integer> loanCounts = new ConcurrentHashMap<String, Integer>();
+    private int lostItems = 0;
+
+    private SyntheticCatalogue() {}
+
+    /**
+     * @param itemCount How many items to create, in total.
+     * @param lostRatio The share of items that are lost or missing.
+     * @param copiesPerHolding How many items each holdings record has.
+     */
+    public static SyntheticCatalogue generate(int itemCount, double lostRatio, int copiesPerHolding, long seed) {
+        SyntheticCatalogue catalogue = new SyntheticCatalogue();
+        Random random = new Random(seed);
+        String now = Instant.now().toString();
+        int instanceNumber = 0;
+        int itemNumber = 0;
+        while (itemNumber < itemCount) {
+            String instanceId = uuid(random);
+            catalogue.instances.put(instance(instanceId, instanceNumber, now));
+            String holdingsRecordId = uuid(random);
+            catalogue.holdings.put(holdingsRecord(holdingsRecordId, instanceId, instanceNumber, now));
+            for (int copy = 0; copy < copiesPerHolding && itemNumber < itemCount; copy++, itemNumber++) {
+                boolean lost = random.nextDouble() < lostRatio;
+                JSONObject item = item(uuid(random), holdingsRecordId, instanceNumber, itemNumber, copy,
+                    lost, random, now);
+                catalogue.items.put(item);
+                catalogue.loanCounts.put(item.getString("id"), random.nextInt(25));
+                if (lost) {
+                    catalogue.lostItems++;
+                }
+            }
+            instanceNumber++;
+        }
+        return catalogue;
+    }
+
+    public Store getItems() {
+        return items;
+    }
+
+    public Store getHoldings() {
+        return holdings;
+    }
+
+    public Store getInstances() {
+        return instances;
+    }
+
+    public int getLostItemCount() {
+        return lostItems;
+    }
+
+    public int getLoanCount(String itemId) {
+        return loanCounts.getOrDefault(itemId, 0);
+    }
+
+    private static JSONObject instance(String id, int number, String now) {
+        JSONObject instance = new JSONObject();
+        instance.put("id", id);
+        instance.put("_version", 1);
+        instance.put("hrid", String.format("in%011d", number));
+        instance.put("source", "MARC");
+        instance.put("title", "Synthetic title " + number + " : a novel / by Author " + (number % 997) + ".");
+        instance.put("indexTitle", "Synthetic title " + number + " : a novel");
+        instance.put("instanceTypeId", "6312d172-f0cf-40f6-b27d-9fa8feaf332f");
+        instance.put("statusId", "9634a5ab-9228-4703-baf2-4d12ebc77d56");
+        instance.put("discoverySuppress", false);
+        instance.put("staffSuppress", false);
+        instance.put("statisticalCodeIds", new JSONArray());
+        instance.put("languages", new JSONArray().put("eng"));
+        instance.put("metadata", metadata(now));
+        return instance;
+    }
+
+    private static JSONObject holdingsRecord(String id, String instanceId, int number, String now) {
+        JSONObject holdingsRecord = new JSONObject();
+        holdingsRecord.put("id", id);
+        holdingsRecord.put("_version", 1);
+        holdingsRecord.put("hrid", String.format("ho%011d", number));
+        holdingsRecord.put("instanceId", instanceId);
+        holdingsRecord.put("permanentLocationId", "fcd64ce1-6995-48f0-840e-89ffa2288371");
+        holdingsRecord.put("callNumber", callNumber(number));
+        holdingsRecord.put("discoverySuppress", false);
+        holdingsRecord.put("statisticalCodeIds", new JSONArray());
+        holdingsRecord.put("notes", new JSONArray());
+        holdingsRecord.put("metadata", metadata(now));
+        return holdingsRecord;
+    }
+
+    private static JSONObject item(String id, String holdingsRecordId, int instanceNumber, int number, int copy,
+        boolean lost, Random random, String now) {
+
+        JSONObject item = new JSONObject();
+        item.put("id", id);
+        item.put("_version", 1);
+        item.put("hrid", String.format("it%011d", number));
+        item.put("holdingsRecordId", holdingsRecordId);
+        item.put("title", "Synthetic title " + instanceNumber + " : a novel");
+        item.put("contributorNames", new JSONArray().put(new JSONObject().put("name", "Author " + (instanceNumber % 997))));
+        item.put("callNumber", callNumber(instanceNumber));
+        item.put("effectiveCallNumberComponents", new JSONObject().put("callNumber", callNumber(instanceNumber)));
+        item.put("barcode", String.valueOf(39151000000000L + number));
+        item.put("copyNumber", "c." + (copy + 1));
+        item.put("discoverySuppress", false);
+
+        String status = "Available";
+        if (lost) {
+            status = random.nextInt(5) == 0 ? "Long missing" : "Declared lost";
+        }
+        item.put("status", new JSONObject().put("name", status).put("date", now));
+
+        JSONArray notes = new JSONArray();
+        if (random.nextBoolean()) {
+            notes.put(note(LEGACY_CIRCULATION_COUNT_NOTE_TYPE, String.valueOf(random.nextInt(40))));
+        }
+        if (lost && random.nextInt(3) == 0) {
+            notes.put(note(PATRON_REQUESTING_NOTE_TYPE, "patron" + number));
+        }
+        item.put("notes", notes);
+        item.put("circulationNotes", new JSONArray());
+
+        JSONArray statisticalCodeIds = new JSONArray();
+        if (random.nextInt(20) == 0) {
+            statisticalCodeIds.put(RETENTION_AGREEMENT_CODE);
+        }
+        item.put("statisticalCodeIds", statisticalCodeIds);
+
+        item.put("materialType", new JSONObject().put("id", "1a54b431-2e4f-452d-9cae-9cee66c9a892").put("name", "book"));
+        item.put("permanentLoanType", new JSONObject().put("id", "2b94c631-fca9-4892-a730-03ee529ffe27").put("name", "Can circulate"));
+        item.put("effectiveLocation", new JSONObject().put("id", "fcd64ce1-6995-48f0-840e-89ffa2288371").put("name", "Stacks"));
+        item.put("metadata", metadata(now));
+        return item;
+    }
+
+    private static String callNumber(int number) {
+        return "PS" + (3500 + number % 500) + ".S" + (number % 97) + " T4 " + (1900 + number % 120);
+    }
+
+    private static JSONObject note(String typeId, String text) {
+        return new JSONObject().put("itemNoteTypeId", typeId).put("note", text).put("staffOnly", true);
+    }
+
+    private static JSONObject metadata(String now) {
+        return new JSONObject().put("createdDate", now).put("updatedDate", now);
+    }
+
+    private static String uuid(Random random) {
+        return new UUID(random.nextLong(), random.nextLong()).toString();
+    }
+
+}
@@ -0,0 +1,207 @@
+package edu.lehigh.libraries.purchase_request.connection;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Limits how many requests of one kind are in flight to FOLIO, adjusting the limit to how FOLIO
+ * copes: additive increase, by about one request for each limit's worth of timely responses, and
+ * multiplicative decrease when a response is throttled (429), a gateway error (502-504), a failure
+ * to connect or read, or slower than the configured threshold.
+ *
+ * The limit only grows while at least half of it is in use, and falls at most once for the requests
+ * already in flight when it falls, so that one burst of errors doesn't collapse it to the floor.
+ * Requests over the limit wait their turn in order.
+ */
+@Slf4j
+class AdaptiveConcurrencyLimit {
+
+    private final String budget;
+    private final int floor;
+    private final int ceiling;
+    private final double backoffRatio;
+    private final long slowResponseNanos;
+    private final Timer queueTimer;
+
+    // Guarded by this.
+    private double limit;
+    private int inFlight = 0;
+    private long lastDecrease;
+    private final Deque<Waiter> waiting = new ArrayDeque<Waiter>();
+
+    AdaptiveConcurrencyLimit(String budget, int floor, int initial, int ceiling, double backoffRatio,
+        long slowResponseMillis, MeterRegistry meterRegistry) {
+
+        this.budget = budget;
+        this.floor = Integer.max(1, floor);
+        this.ceiling = Integer.max(this.floor, ceiling);
+        this.limit = Integer.min(this.ceiling, Integer.max(this.floor, initial));
+        this.backoffRatio = backoffRatio;
+        this.slowResponseNanos = TimeUnit.MILLISECONDS.toNanos(slowResponseMillis);
+        this.lastDecrease = System.nanoTime();
+
+        Gauge.builder("folio.client.concurrency.limit", this, AdaptiveConcurrencyLimit::getLimit)
+            .description("Requests allowed in flight to FOLIO at once")
+            .tag("budget", budget)
+            .register(meterRegistry);
+        Gauge.builder("folio.client.concurrency.in_flight", this, AdaptiveConcurrencyLimit::getInFlight)
+            .description("Requests in flight to FOLIO")
+            .tag("budget", budget)
+            .register(meterRegistry);
+        Gauge.builder("folio.client.concurrency.waiting", this, AdaptiveConcurrencyLimit::getWaiting)
+            .description("Requests waiting for their turn to be sent to FOLIO")
+            .tag("budget", budget)
+            .register(meterRegistry);
+        this.queueTimer = Timer.builder("folio.client.concurrency.queue")
+            .description("Time requests waited for their turn to be sent to FOLIO")
+            .tag("budget", budget)
+            .register(meterRegistry);
+    }
+
+    /**
+     * A turn to send one request.  Release it exactly once, when the response is in.
+     */
+    class Permit {
+
+        private final long started = System.nanoTime();
+
+        /**
+         * @param statusCode The response status, or 0 if there was no response.
+         */
+        void release(int statusCode) {
+            onRelease(this, statusCode, System.nanoTime() - started);
+        }
+
+        /**
+         * Give up the turn without sending anything, leaving the limit as it is.
+         */
+        void abandon() {
+            onRelease(this, -1, 0);
+        }
+
+    }
+
+    private static class Waiter {
+        final CompletableFuture<Permit> future = new CompletableFuture<Permit>();
+        final long queued = System.nanoTime();
+    }
+
+    /**
+     * @return A future completed with a permit as soon as the request may be sent.
+     */
+    CompletableFuture<Permit> acquire() {
+        Waiter waiter = new Waiter();
+        synchronized (this) {
+            waiting.add(waiter);
+        }
+        grantWaiting();
+        return waiter.future;
+    }
+
+    /**
+     * Wait for a permit.
+     *
+     * @throws IOException if the wait takes longer than the timeout.
+     */
+    Permit acquire(long timeoutMillis) throws IOException, InterruptedException {
+        CompletableFuture<Permit> future = acquire();
+        try {
+            return future.get(timeoutMillis, TimeUnit.MILLISECONDS);
+        }
+        catch (TimeoutException e) {
+            giveUp(future);
+            throw new IOException("Timed out after " + timeoutMillis + " ms waiting to send a FOLIO " + budget);
+        }
+        catch (InterruptedException e) {
+            giveUp(future);
+            throw e;
+        }
+        catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        }
+    }
+
+    private void giveUp(CompletableFuture<Permit> future) {
+        // Granted just as the wait ended, so hand the turn back.
+        if (!future.cancel(false) && !future.isCompletedExceptionally()) {
+            future.join().abandon();
+        }
+    }
+
+    private void onRelease(Permit permit, int statusCode, long elapsedNanos) {
+        synchronized (this) {
+            inFlight--;
+            if (statusCode >= 0) {
+                adjust(permit, statusCode, elapsedNanos);
+            }
+        }
+        grantWaiting();
+    }
+
+    // Called holding the lock.
+    private void adjust(Permit permit, int statusCode, long elapsedNanos) {
+        boolean overloaded = statusCode == 0 || statusCode == 429 || (statusCode >= 502 && statusCode <= 504)
+            || elapsedNanos > slowResponseNanos;
+        if (overloaded) {
+            if (permit.started - lastDecrease > 0) {
+                double previous = limit;
+                limit = Math.max(floor, limit * backoffRatio);
+                lastDecrease = System.nanoTime();
+                log.debug("FOLIO " + budget + " limit down from " + (int)previous + " to " + (int)limit
+                    + " after status " + statusCode + " in " + TimeUnit.NANOSECONDS.toMillis(elapsedNanos) + " ms");
+            }
+        }
+        else if (inFlight + 1 >= limit / 2 && limit < ceiling) {
+            limit = Math.min(ceiling, limit + 1 / limit);
+        }
+    }
+
+    private void grantWaiting() {
+        List<Waiter> granted = new ArrayList<Waiter>();
+        synchronized (this) {
+            while (!waiting.isEmpty() && inFlight < (int)limit) {
+                Waiter waiter = waiting.poll();
+                if (waiter.future.isDone()) {
+                    continue;
+                }
+                inFlight++;
+                granted.add(waiter);
+            }
+        }
+        // Completed outside the lock, since completing a future runs whatever waits on it.
+        for (Waiter waiter : granted) {
+            Permit permit = new Permit();
+            if (waiter.future.complete(permit)) {
+                queueTimer.record(permit.started - waiter.queued, TimeUnit.NANOSECONDS);
+            }
+            else {
+                permit.abandon();
+            }
+        }
+    }
+
+    synchronized int getLimit() {
+        return (int)limit;
+    }
+
+    synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    synchronized int getWaiting() {
+        return waiting.size();
+    }
+
+}
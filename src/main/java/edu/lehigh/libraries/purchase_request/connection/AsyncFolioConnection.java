@@ -0,0 +1,385 @@
+package edu.lehigh.libraries.purchase_request.connection;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import javax.annotation.PreDestroy;
+
+import org.apache.http.client.utils.URIBuilder;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.springframework.stereotype.Component;
+
+import edu.lehigh.libraries.purchase_request.lost_items_client.config.PropertiesConfig;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Non-blocking counterpart to FolioConnection, for callers that want many FOLIO calls in flight
+ * at once without a thread for each.  Calls return CompletableFutures, completed on a small pool
+ * of threads, that fail with the same exceptions the blocking calls throw.
+ *
+ * Shares the blocking connection's configuration, Okapi token, folio.client.requests metrics,
+ * concurrency limits, retry policy and circuit breakers, so the two together stay within what FOLIO
+ * can take.  Requests over the limit, and retries backing off, wait without holding a thread.
+ */
+@Component
+@Slf4j
+public class AsyncFolioConnection {
+
+    private final PropertiesConfig config;
+    private final JsonCodec codec;
+    private final FolioConnection folio;
+    private final OkapiTokenManager tokenManager;
+    private final FolioRequestMetrics metrics;
+    private final RetryPolicy retryPolicy;
+    private final Duration requestTimeout;
+
+    private final ExecutorService executor;
+    private final HttpClient client;
+
+    public AsyncFolioConnection(PropertiesConfig config, JsonCodec codec, FolioConnection folio) {
+        this.config = config;
+        this.codec = codec;
+        this.folio = folio;
+        this.tokenManager = folio.getTokenManager();
+        this.metrics = folio.getMetrics();
+        this.retryPolicy = folio.getRetryPolicy();
+
+        PropertiesConfig.Folio.Http httpConfig = config.getFolio().getHttp();
+        PropertiesConfig.Folio.Async asyncConfig = config.getFolio().getAsync();
+        this.requestTimeout = Duration.ofMillis(httpConfig.getSocketTimeout());
+
+        executor = Executors.newFixedThreadPool(asyncConfig.getThreads(), runnable -> {
+            Thread thread = new Thread(runnable, "folio-async");
+            thread.setDaemon(true);
+            return thread;
+        });
+        client = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .connectTimeout(Duration.ofMillis(httpConfig.getConnectTimeout()))
+            .executor(executor)
+            .build();
+
+        log.debug("Asynchronous FOLIO connection ready");
+    }
+
+    @PreDestroy
+    void close() {
+        log.debug("Closing asynchronous FOLIO connection.");
+        executor.shutdownNow();
+    }
+
+    /**
+     * Count the records matching a query without loading any of them.
+     */
+    public CompletableFuture<Integer> executeCount(String endpoint, String url, String queryString) {
+        return executeGet(endpoint, url, queryString, Integer.valueOf(0))
+            .thenApply(result -> result.getInt("totalRecords"));
+    }
+
+    /**
+     * @return True if any record matches the query.
+     */
+    public CompletableFuture<Boolean> executeExists(String endpoint, String url, String queryString) {
+        return executeCount(endpoint, url, queryString).thenApply(count -> count > 0);
+    }
+
+    public CompletableFuture<JSONObject> executeGet(String endpoint, String url, String queryString) {
+        return executeGet(endpoint, url, queryString, null);
+    }
+
+    public CompletableFuture<JSONObject> executeGet(String endpoint, String url, String queryString, Integer limit) {
+        return executeGet(endpoint, url, queryString, limit, null);
+    }
+
+    public CompletableFuture<JSONObject> executeGet(String endpoint, String url, String queryString, Integer limit,
+        Integer offset) {
+        return executeGet(endpoint, url, queryString, limit, offset, codec::readObject);
+    }
+
+    /**
+     * Like FolioConnection.executeGetForArray.  With a limit, the first page is read for its totalRecords,
+     * then the rest of the pages are all requested at once and reassembled in order.
+     */
+    public CompletableFuture<JSONArray> executeGetForArray(String endpoint, String url, String queryString,
+        Integer limit, String arrayProperty) {
+
+        if (limit == null) {
+            return executeGetPage(endpoint, url, queryString, null, null, arrayProperty)
+                .thenApply(page -> new JSONArray(page.records));
+        }
+
+        int queryLimit = Integer.min(limit.intValue(), FolioConnection.LARGE_QUERY_LIMIT);
+        return executeGetPage(endpoint, url, queryString, queryLimit, 0, arrayProperty).thenCompose(firstPage -> {
+            List<JSONObject> results = new ArrayList<JSONObject>(firstPage.records);
+            if (results.isEmpty()) {
+                return CompletableFuture.completedFuture(new JSONArray(results));
+            }
+
+            int total = firstPage.totalRecords;
+            int expected = total < 0 ? limit.intValue() : Integer.min(limit.intValue(), total);
+            List<CompletableFuture<Page>> pages = new ArrayList<CompletableFuture<Page>>();
+            int offset = queryLimit;
+            for (; offset < expected; offset += queryLimit) {
+                log.debug("Async query: request batch of " + queryLimit + " results at offset " + offset);
+                pages.add(executeGetPage(endpoint, url, queryString, queryLimit, offset, arrayProperty));
+            }
+            int nextOffset = offset;
+
+            return CompletableFuture.allOf(pages.toArray(new CompletableFuture<?>[0])).thenCompose(done -> {
+                int lastPageLength = firstPage.records.size();
+                for (CompletableFuture<Page> page : pages) {
+                    List<JSONObject> records = page.join().records;
+                    if (records.isEmpty()) {
+                        return CompletableFuture.completedFuture(new JSONArray(results));
+                    }
+                    results.addAll(records);
+                    lastPageLength = records.size();
+                }
+                // totalRecords can be an estimate; if it was low, carry on one page at a time.
+                if (lastPageLength < queryLimit) {
+                    return CompletableFuture.completedFuture(new JSONArray(results));
+                }
+                return fetchRemainingPages(endpoint, url, queryString, limit, arrayProperty, results, nextOffset)
+                    .thenApply(JSONArray::new);
+            });
+        });
+    }
+
+    private CompletableFuture<List<JSONObject>> fetchRemainingPages(String endpoint, String url, String queryString,
+        Integer limit, String arrayProperty, List<JSONObject> results, int offset) {
+
+        int queryLimit = Integer.min(limit.intValue(), FolioConnection.LARGE_QUERY_LIMIT);
+        if (offset >= limit.intValue()) {
+            return CompletableFuture.completedFuture(results);
+        }
+        log.debug("Async split query: request batch of " + queryLimit + " results.");
+        return executeGetPage(endpoint, url, queryString, queryLimit, offset, arrayProperty).thenCompose(page -> {
+            if (page.records.isEmpty()) {
+                return CompletableFuture.completedFuture(results);
+            }
+            results.addAll(page.records);
+            return fetchRemainingPages(endpoint, url, queryString, limit, arrayProperty, results, offset + queryLimit);
+        });
+    }
+
+    private static class Page {
+        final List<JSONObject> records = new ArrayList<JSONObject>();
+        int totalRecords;
+    }
+
+    private CompletableFuture<Page> executeGetPage(String endpoint, String url, String queryString, Integer limit,
+        Integer offset, String arrayProperty) {
+
+        return executeGet(endpoint, url, queryString, limit, offset, in -> {
+            Page page = new Page();
+            page.totalRecords = codec.readArray(in, arrayProperty, page.records::add);
+            return page;
+        });
+    }
+
+    private interface ResponseReader<T> {
+        T read(InputStream in) throws IOException;
+    }
+
+    private <T> CompletableFuture<T> executeGet(String endpoint, String url, String queryString, Integer limit,
+        Integer offset, ResponseReader<T> reader) {
+
+        HttpRequest.Builder builder;
+        try {
+            URIBuilder uri = new URIBuilder(config.getFolio().getOkapiBaseUrl() + url);
+            if (queryString != null) {
+                uri.addParameter("query", queryString);
+            }
+            if (limit != null) {
+                uri.addParameter("limit", limit.toString());
+            }
+            if (offset != null) {
+                uri.addParameter("offset", offset.toString());
+            }
+            builder = HttpRequest.newBuilder(uri.build()).GET();
+        }
+        catch (Exception e) {
+            return CompletableFuture.failedFuture(e);
+        }
+
+        return execute(endpoint, builder, true).thenApply(response -> {
+            if (response.statusCode() > 399) {
+                throw new CompletionException(new IOException("Cannot execute request: " + response));
+            }
+            log.debug("Got response with code " + response.statusCode());
+            try (InputStream in = new ByteArrayInputStream(response.body())) {
+                return reader.read(in);
+            }
+            catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        });
+    }
+
+    public CompletableFuture<Boolean> executePut(String endpoint, String url, JSONObject data) {
+        return executePutForStatus(endpoint, url, data).thenApply(status -> status == 204);
+    }
+
+    /**
+     * PUT a record, completing with the status code so callers can tell a version conflict (409)
+     * from other failures.  As with the blocking call, only a record carrying its _version is retried.
+     */
+    public CompletableFuture<Integer> executePutForStatus(String endpoint, String url, JSONObject data) {
+        HttpRequest.Builder builder;
+        try {
+            builder = HttpRequest.newBuilder(URI.create(config.getFolio().getOkapiBaseUrl() + url))
+                .header("Content-Type", "application/json; charset=UTF-8")
+                .PUT(HttpRequest.BodyPublishers.ofString(data.toString(), StandardCharsets.UTF_8));
+        }
+        catch (Exception e) {
+            return CompletableFuture.failedFuture(e);
+        }
+
+        return execute(endpoint, builder, data.has("_version")).thenApply(response -> {
+            int statusCode = response.statusCode();
+            if (statusCode == 204) {
+                log.debug("Got successful response to PUT.");
+            }
+            else {
+                log.warn("Got response with code " + statusCode);
+            }
+            return statusCode;
+        });
+    }
+
+    /**
+     * Execute a request, through its endpoint's circuit breaker.
+     *
+     * @param retryable True if the request is safe to repeat after a transient failure, with backoff.
+     */
+    private CompletableFuture<HttpResponse<byte[]>> execute(String endpoint, HttpRequest.Builder builder, 
+        boolean retryable) {
+
+        HttpRequest request = builder
+            .setHeader(FolioConnection.TENANT_HEADER, config.getFolio().getTenantId())
+            .timeout(requestTimeout)
+            .build();
+        CircuitBreakers.Breaker breaker = folio.getCircuitBreakers().forEndpoint(endpoint);
+        return execute(endpoint, builder, request.method(), breaker, retryable, 0);
+    }
+
+    private CompletableFuture<HttpResponse<byte[]>> execute(String endpoint, HttpRequest.Builder builder, 
+        String method, CircuitBreakers.Breaker breaker, boolean retryable, int attempt) {
+
+        int[] statusCode = { 0 };
+        return execute(endpoint, builder, method, breaker, statusCode).handle((response, error) -> {
+            if (retryable && retryPolicy.canRetry(attempt) && RetryPolicy.isTransient(statusCode[0])
+                && !(unwrap(error) instanceof CircuitOpenException)) {
+
+                log.info("FOLIO call to " + endpoint + " failed ("
+                    + (error == null ? "status " + statusCode[0] : unwrap(error).toString()) + "); retrying.");
+                Executor delayed = CompletableFuture.delayedExecutor(retryPolicy.backoffMillis(attempt),
+                    TimeUnit.MILLISECONDS, executor);
+                return CompletableFuture.supplyAsync(() -> null, delayed)
+                    .thenCompose(ignored -> execute(endpoint, builder, method, breaker, retryable, attempt + 1));
+            }
+            return error == null ? CompletableFuture.completedFuture(response)
+                : CompletableFuture.<HttpResponse<byte[]>>failedFuture(unwrap(error));
+        }).thenCompose(Function.identity());
+    }
+
+    private static Throwable unwrap(Throwable error) {
+        return error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+    }
+
+    /**
+     * Execute a request with the current token, once its budget allows.  If FOLIO rejects the token, 
+     * log in again, off the response thread, and replay the request exactly once.
+     *
+     * @param statusCode Set to the status of the last response, or left 0 if there was none.
+     */
+    private CompletableFuture<HttpResponse<byte[]>> execute(String endpoint, HttpRequest.Builder builder, 
+        String method, CircuitBreakers.Breaker breaker, int[] statusCode) {
+
+        // Sent from the pool, so that a call failing at once can't recurse into the next one waiting.
+        return folio.getConcurrencyLimit(method).acquire().thenComposeAsync(permit -> {
+            try {
+                breaker.acquire();
+            }
+            catch (CircuitOpenException e) {
+                permit.abandon();
+                return CompletableFuture.<HttpResponse<byte[]>>failedFuture(e);
+            }
+            Function<String, CompletableFuture<HttpResponse<byte[]>>> send = tokenValue ->
+                executeTimed(endpoint, withToken(builder, tokenValue)).thenApply(response -> {
+                    statusCode[0] = response.statusCode();
+                    return response;
+                });
+
+            boolean[] loginFailed = { false };
+            String usedToken = tokenManager.getToken();
+            return send.apply(usedToken)
+                .thenCompose(response -> {
+                    if (response.statusCode() != 401) {
+                        return CompletableFuture.completedFuture(response);
+                    }
+                    log.info("FOLIO rejected the token; logging in again and retrying the request.");
+                    return CompletableFuture.supplyAsync(() -> {
+                            try {
+                                return tokenManager.refresh(usedToken);
+                            }
+                            catch (Exception e) {
+                                loginFailed[0] = true;
+                                throw new CompletionException(e);
+                            }
+                        }, executor)
+                        .thenCompose(newToken -> {
+                            statusCode[0] = 0;
+                            return send.apply(newToken);
+                        });
+                })
+                .whenComplete((response, error) -> {
+                    // A failed login says nothing about the endpoint, whose request was never replayed.
+                    if (loginFailed[0]) {
+                        breaker.abandon();
+                    }
+                    else {
+                        breaker.record(statusCode[0]);
+                    }
+                    permit.release(statusCode[0]);
+                });
+        }, executor);
+    }
+
+    private static HttpRequest withToken(HttpRequest.Builder builder, String tokenValue) {
+        HttpRequest.Builder copy = builder.copy();
+        if (tokenValue != null) {
+            copy.setHeader(FolioConnection.TOKEN_HEADER, tokenValue);
+        }
+        return copy.build();
+    }
+
+    /**
+     * Send one HTTP request, timing it under folio.client.requests.
+     */
+    private CompletableFuture<HttpResponse<byte[]>> executeTimed(String endpoint, HttpRequest request) {
+        Timer.Sample sample = metrics.start();
+        return client.sendAsync(request, HttpResponse.BodyHandlers.ofByteArray())
+            .whenComplete((response, error) ->
+                metrics.stop(sample, endpoint, request.method(), response == null ? 0 : response.statusCode()));
+    }
+
+}
@@ -0,0 +1,141 @@
+package edu.lehigh.libraries.purchase_request.connection;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import edu.lehigh.libraries.purchase_request.lost_items_client.config.PropertiesConfig;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * One circuit breaker for each endpoint of a service, named by what calls to it are for, such as
+ * "items search".
+ *
+ * A breaker opens after the configured number of consecutive failures: no response at all, or a
+ * gateway error (502-504).  While open, calls fail fast with a CircuitOpenException.  Once the
+ * breaker has been open for the configured time, it lets one trial call through, closing again if
+ * that succeeds and staying open for another spell if it fails.
+ */
+@Slf4j
+class CircuitBreakers {
+
+    private final String service;
+    private final int failureThreshold;
+    private final long openNanos;
+    private final MeterRegistry meterRegistry;
+    private final Map<String, Breaker> breakers = new ConcurrentHashMap<String, Breaker>();
+
+    CircuitBreakers(String service, PropertiesConfig.CircuitBreaker config, MeterRegistry meterRegistry) {
+        this.service = service;
+        this.failureThreshold = Integer.max(1, config.getFailureThreshold());
+        this.openNanos = TimeUnit.SECONDS.toNanos(config.getOpenSeconds());
+        this.meterRegistry = meterRegistry;
+    }
+
+    /**
+     * @param statusCode The response status, or 0 if there was no response.
+     */
+    static boolean isFailure(int statusCode) {
+        return statusCode == 0 || (statusCode >= 502 && statusCode <= 504);
+    }
+
+    Breaker forEndpoint(String endpoint) {
+        return breakers.computeIfAbsent(endpoint, key -> {
+            Breaker breaker = new Breaker(service + " " + key);
+            Gauge.builder("circuit_breaker.open", breaker, b -> b.isOpen() ? 1 : 0)
+                .description("Whether calls to an endpoint are failing fast")
+                .tag("service", service)
+                .tag("endpoint", key)
+                .register(meterRegistry);
+            return breaker;
+        });
+    }
+
+    /**
+     * @return True if any of these endpoints is failing fast.
+     */
+    boolean isAnyOpen(String... endpoints) {
+        for (String endpoint : endpoints) {
+            Breaker breaker = breakers.get(endpoint);
+            if (breaker != null && breaker.isOpen()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    class Breaker {
+
+        private final String name;
+
+        // Guarded by this.
+        private int consecutiveFailures = 0;
+        private boolean open = false;
+        private long openedAt;
+        private boolean trialInFlight = false;
+
+        private Breaker(String name) {
+            this.name = name;
+        }
+
+        /**
+         * Call before each attempt.
+         *
+         * @throws CircuitOpenException if the call should not be made.
+         */
+        synchronized void acquire() {
+            if (!open) {
+                return;
+            }
+            if (trialInFlight || System.nanoTime() - openedAt < openNanos) {
+                throw new CircuitOpenException(name);
+            }
+            log.info("Trying " + name + " again.");
+            trialInFlight = true;
+        }
+
+        /**
+         * Call after each attempt that was made.
+         *
+         * @param statusCode The response status, or 0 if there was no response.
+         */
+        synchronized void record(int statusCode) {
+            trialInFlight = false;
+            if (!isFailure(statusCode)) {
+                if (open) {
+                    log.info(name + " has recovered.");
+                }
+                open = false;
+                consecutiveFailures = 0;
+                return;
+            }
+            consecutiveFailures++;
+            if (open || consecutiveFailures >= failureThreshold) {
+                if (!open) {
+                    log.warn(name + " failed " + consecutiveFailures + " times in a row; failing fast for "
+                        + TimeUnit.NANOSECONDS.toSeconds(openNanos) + " seconds.");
+                }
+                open = true;
+                openedAt = System.nanoTime();
+            }
+        }
+
+        /**
+         * Call instead of record when an attempt was given up before the endpoint was called.
+         */
+        synchronized void abandon() {
+            trialInFlight = false;
+        }
+
+        /**
+         * @return True while calls fail fast, before the breaker is ready to try a call again.
+         */
+        synchronized boolean isOpen() {
+            return open && (trialInFlight || System.nanoTime() - openedAt < openNanos);
+        }
+
+    }
+
+}
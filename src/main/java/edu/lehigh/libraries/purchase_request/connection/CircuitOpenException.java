@@ -0,0 +1,14 @@
+package edu.lehigh.libraries.purchase_request.connection;
+
+/**
+ * Thrown instead of making a call to an endpoint whose circuit breaker is open.
+ */
+public class CircuitOpenException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    CircuitOpenException(String endpoint) {
+        super(endpoint + " has been failing; not calling it until it has had time to recover.");
+    }
+
+}
@@ -0,0 +1,206 @@
+package edu.lehigh.libraries.purchase_request.connection;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import org.json.JSONObject;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Gathers changes to FOLIO storage records and writes them in batches through a synchronous
+ * batch upsert endpoint.
+ *
+ * On each flush, the pending records are loaded fresh in as few calls as possible, their changes
+ * are applied, and the changed records are written in one call.  Several changes to the same
+ * record are coalesced into a single write.  If the batch is rejected, each record is written
+ * on its own, so that only the bad record fails.
+ *
+ * Call flush() when done adding changes; anything still pending is not written otherwise.
+ */
+@Slf4j
+public class FolioBatchWriter {
+
+    public interface Changes {
+        /**
+         * Apply the changes to a freshly loaded record.
+         *
+         * @return False if the record already had the changes, so it need not be written.
+         */
+        boolean apply(JSONObject record);
+    }
+
+    private static class PendingUpdate {
+        final List<Changes> changes = new ArrayList<Changes>();
+        final List<Consumer<Boolean>> callbacks = new ArrayList<Consumer<Boolean>>();
+
+        boolean apply(JSONObject record) {
+            boolean changed = false;
+            for (Changes change : changes) {
+                changed |= change.apply(record);
+            }
+            return changed;
+        }
+
+        void complete(boolean success) {
+            for (Consumer<Boolean> callback : callbacks) {
+                callback.accept(success);
+            }
+        }
+    }
+
+    private final FolioConnection folio;
+    private final String recordType;
+    private final String recordUrl;
+    private final String batchUrl;
+    private final String arrayProperty;
+    private final int batchSize;
+    private final int conflictRetries;
+
+    private final Object lock = new Object();
+    private Map<String, PendingUpdate> pending = new LinkedHashMap<String, PendingUpdate>();
+
+    FolioBatchWriter(FolioConnection folio, String recordType, String recordUrl, String batchUrl,
+        String arrayProperty, int batchSize, int conflictRetries) {
+
+        this.folio = folio;
+        this.recordType = recordType;
+        this.recordUrl = recordUrl;
+        this.batchUrl = batchUrl;
+        this.arrayProperty = arrayProperty;
+        this.batchSize = Integer.max(batchSize, 1);
+        this.conflictRetries = conflictRetries;
+    }
+
+    /**
+     * Queue changes to a record, writing the batch if it is now full.
+     *
+     * @param onWritten Called with whether the record was written, or already had the changes.
+     */
+    public void update(String id, Changes changes, Consumer<Boolean> onWritten) {
+        Map<String, PendingUpdate> fullBatch = null;
+        synchronized (lock) {
+            PendingUpdate update = pending.computeIfAbsent(id, key -> new PendingUpdate());
+            update.changes.add(changes);
+            update.callbacks.add(onWritten);
+            if (pending.size() >= batchSize) {
+                fullBatch = takePending();
+            }
+        }
+        if (fullBatch != null) {
+            write(fullBatch);
+        }
+    }
+
+    /**
+     * Write whatever changes are pending.
+     */
+    public void flush() {
+        Map<String, PendingUpdate> batch;
+        synchronized (lock) {
+            batch = takePending();
+        }
+        if (!batch.isEmpty()) {
+            write(batch);
+        }
+    }
+
+    private Map<String, PendingUpdate> takePending() {
+        Map<String, PendingUpdate> batch = pending;
+        pending = new LinkedHashMap<String, PendingUpdate>();
+        return batch;
+    }
+
+    private void write(Map<String, PendingUpdate> batch) {
+        Map<String, JSONObject> records;
+        try {
+            records = folio.executeGetByIds(recordType + " by ids", recordUrl, batch.keySet(), arrayProperty);
+        }
+        catch (Exception e) {
+            log.error("Exception loading " + batch.size() + " records from " + recordUrl + " to update: ", e);
+            batch.values().forEach(update -> update.complete(false));
+            return;
+        }
+
+        Map<String, JSONObject> changed = new LinkedHashMap<String, JSONObject>();
+        for (Map.Entry<String, PendingUpdate> entry : batch.entrySet()) {
+            JSONObject record = records.get(entry.getKey());
+            if (record == null) {
+                log.warn("Record " + entry.getKey() + " not found at " + recordUrl + "; cannot update it.");
+                entry.getValue().complete(false);
+            }
+            else if (applyChanges(entry.getKey(), record, entry.getValue())) {
+                changed.put(entry.getKey(), record);
+            }
+        }
+        if (changed.isEmpty()) {
+            return;
+        }
+
+        boolean success;
+        try {
+            success = folio.executeBatchUpsert(recordType + " batch upsert", batchUrl, arrayProperty,
+                changed.values());
+        }
+        catch (Exception e) {
+            log.error("Exception writing batch to " + batchUrl + ": ", e);
+            success = false;
+        }
+        if (success) {
+            log.info("Successfully updated " + changed.size() + " FOLIO records in one batch.");
+            changed.keySet().forEach(id -> batch.get(id).complete(true));
+            return;
+        }
+
+        log.warn("Batch write to " + batchUrl + " failed; writing its " + changed.size()
+            + " records one at a time.");
+        changed.forEach((id, record) -> batch.get(id).complete(writeOne(id, record, batch.get(id))));
+    }
+
+    /**
+     * @return True if the record now needs writing.  Otherwise the update is already complete.
+     */
+    private boolean applyChanges(String id, JSONObject record, PendingUpdate update) {
+        try {
+            if (update.apply(record)) {
+                return true;
+            }
+            log.debug("Record " + id + " already up to date.");
+            update.complete(true);
+        }
+        catch (RuntimeException e) {
+            log.error("Exception applying changes to record " + id + ": ", e);
+            update.complete(false);
+        }
+        return false;
+    }
+
+    private boolean writeOne(String id, JSONObject record, PendingUpdate update) {
+        String url = recordUrl + "/" + id;
+        try {
+            for (int attempt = 0; ; attempt++) {
+                int status = folio.executePutForStatus(recordType + " update", url, record);
+                if (status == 204) {
+                    return true;
+                }
+                if (status != 409 || attempt >= conflictRetries) {
+                    log.warn("Failed to update FOLIO record " + id + ".");
+                    return false;
+                }
+                log.info("FOLIO record " + id + " changed since it was read; re-loading and retrying.");
+                record = folio.executeGet(recordType + " by id", url, null);
+                if (!update.apply(record)) {
+                    return true;
+                }
+            }
+        }
+        catch (Exception e) {
+            log.error("Exception updating FOLIO record " + id + ": ", e);
+            return false;
+        }
+    }
+
+}
@@ -1,9 +1,35 @@
 package edu.lehigh.libraries.purchase_request.connection;
 
 import edu.lehigh.libraries.purchase_request.lost_items_client.config.PropertiesConfig;
+import edu.lehigh.libraries.purchase_request.model.FolioItem;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.net.URI;
+import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import javax.annotation.PreDestroy;
 
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpHeaders;
@@ -11,60 +37,154 @@ import org.apache.http.HttpVersion;
 import org.apache.http.auth.AuthScope;
 import org.apache.http.auth.UsernamePasswordCredentials;
 import org.apache.http.client.CredentialsProvider;
-import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.ResponseHandler;
+import org.apache.http.client.config.RequestConfig;
 import org.apache.http.client.methods.HttpUriRequest;
 import org.apache.http.client.methods.RequestBuilder;
 import org.apache.http.client.utils.URIBuilder;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
 import org.apache.http.entity.ContentType;
 import org.apache.http.entity.StringEntity;
 import org.apache.http.impl.client.BasicCredentialsProvider;
 import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
 import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
 import org.apache.http.util.EntityUtils;
 import org.json.JSONArray;
 import org.json.JSONObject;
 import org.springframework.stereotype.Component;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
 import lombok.extern.slf4j.Slf4j;
 
+/**
+ * Blocking calls to the FOLIO API.  Each call names its logical endpoint, such as "items search" or 
+ * "holdings by id", which its metrics are tagged with and its circuit breaker is kept for.
+ */
 @Component
 @Slf4j
 public class FolioConnection {
 
     private static final String LOGIN_PATH = "/authn/login";
+    private static final String LOGIN_ENDPOINT = "login";
 
-    private static final String TENANT_HEADER = "x-okapi-tenant";
-    private static final String TOKEN_HEADER = "x-okapi-token";
+    static final String TENANT_HEADER = "x-okapi-tenant";
+    static final String TOKEN_HEADER = "x-okapi-token";
 
     // Limit to use, with offsets, for queries that would otherwise fail.
     // Queries that cause dependent joins can fail if the dependent query
     // string is too large for the URL limit.
-    private static final Integer LARGE_QUERY_LIMIT = Integer.valueOf(50);
+    static final Integer LARGE_QUERY_LIMIT = Integer.valueOf(50);
+
+    // Without a sort, FOLIO doesn't promise the same order from one page to the next.
+    private static final String ID_SORT = " sortby id";
 
     private final PropertiesConfig config;
+    private final JsonCodec codec;
+    private final FolioRequestMetrics metrics;
+    private final AdaptiveConcurrencyLimit readLimit;
+    private final AdaptiveConcurrencyLimit writeLimit;
+    private final RetryPolicy retryPolicy;
+    private final CircuitBreakers circuitBreakers;
 
+    private PoolingHttpClientConnectionManager connectionManager;
     private CloseableHttpClient client;
-    private String token;
+    private OkapiTokenManager tokenManager;
+    private ExecutorService pageFetcher;
 
-    public FolioConnection(PropertiesConfig config) throws Exception {
+    public FolioConnection(PropertiesConfig config, JsonCodec codec, MeterRegistry meterRegistry) throws Exception {
         this.config = config;
+        this.codec = codec;
+        this.metrics = new FolioRequestMetrics(meterRegistry);
+        PropertiesConfig.Folio.Concurrency concurrency = config.getFolio().getConcurrency();
+        this.readLimit = newConcurrencyLimit("read", concurrency.getReads(), concurrency, meterRegistry);
+        this.writeLimit = newConcurrencyLimit("write", concurrency.getWrites(), concurrency, meterRegistry);
+        this.retryPolicy = new RetryPolicy(config.getRetry());
+        this.circuitBreakers = new CircuitBreakers("folio", config.getCircuitBreaker(), meterRegistry);
 
         initConnection();
-        initToken();
+        initTokenManager();
+        initPageFetcher();
 
         log.debug("FOLIO connection ready");
     }
 
+    private static AdaptiveConcurrencyLimit newConcurrencyLimit(String name, 
+        PropertiesConfig.Folio.Concurrency.Budget budget, PropertiesConfig.Folio.Concurrency concurrency,
+        MeterRegistry meterRegistry) {
+
+        return new AdaptiveConcurrencyLimit(name, budget.getFloor(), budget.getInitial(), budget.getCeiling(),
+            concurrency.getBackoffRatio(), concurrency.getSlowResponseMillis(), meterRegistry);
+    }
+
     private void initConnection() {
+        PropertiesConfig.Folio.Http httpConfig = config.getFolio().getHttp();
+
         CredentialsProvider provider = new BasicCredentialsProvider();
         provider.setCredentials(AuthScope.ANY, 
             new UsernamePasswordCredentials(config.getFolio().getUsername(), config.getFolio().getPassword()));
+
+        connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager.setMaxTotal(httpConfig.getMaxConnectionsTotal());
+        connectionManager.setDefaultMaxPerRoute(httpConfig.getMaxConnectionsPerRoute());
+        connectionManager.setValidateAfterInactivity(httpConfig.getValidateAfterInactivity());
+
+        RequestConfig requestConfig = RequestConfig.custom()
+            .setConnectTimeout(httpConfig.getConnectTimeout())
+            .setSocketTimeout(httpConfig.getSocketTimeout())
+            .setConnectionRequestTimeout(httpConfig.getConnectionRequestTimeout())
+            .build();
+
+        // Honor the server's Keep-Alive header, but don't hold a connection forever when it sends none.
+        long defaultKeepAlive = TimeUnit.SECONDS.toMillis(httpConfig.getKeepAliveSeconds());
+        ConnectionKeepAliveStrategy keepAliveStrategy = (response, context) -> {
+            long keepAlive = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+            return keepAlive > 0 ? keepAlive : defaultKeepAlive;
+        };
+
         client = HttpClientBuilder.create()
             .setDefaultCredentialsProvider(provider)
-            .build();                
+            .setConnectionManager(connectionManager)
+            .setDefaultRequestConfig(requestConfig)
+            .setKeepAliveStrategy(keepAliveStrategy)
+            .evictExpiredConnections()
+            .evictIdleConnections(httpConfig.getIdleEvictionSeconds(), TimeUnit.SECONDS)
+            .build();
+    }
+
+    @PreDestroy
+    void close() throws IOException {
+        log.debug("Closing FOLIO connection pool.");
+        tokenManager.shutdown();
+        if (pageFetcher != null) {
+            pageFetcher.shutdownNow();
+        }
+        client.close();
+    }
+
+    private void initPageFetcher() {
+        int parallelism = config.getFolio().getPageFetchParallelism();
+        if (parallelism > 1) {
+            pageFetcher = Executors.newFixedThreadPool(parallelism, runnable -> {
+                Thread thread = new Thread(runnable, "folio-page-fetch");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    private void initTokenManager() throws Exception {
+        PropertiesConfig.Folio.Token tokenConfig = config.getFolio().getToken();
+        tokenManager = new OkapiTokenManager(this::login,
+            Duration.ofSeconds(tokenConfig.getDefaultLifetimeSeconds()),
+            Duration.ofSeconds(tokenConfig.getRefreshMarginSeconds()));
+        tokenManager.start();
     }
 
-    private void initToken() throws Exception {
+    private String login() throws Exception {
         String url = config.getFolio().getOkapiBaseUrl() + LOGIN_PATH;
         URI uri = new URIBuilder(url).build();
 
@@ -80,60 +200,376 @@ public class FolioConnection {
             .setHeader(TENANT_HEADER, config.getFolio().getTenantId())
             .setEntity(new StringEntity(postData.toString()))
             .build();
-        CloseableHttpResponse response = client.execute(post);
-        HttpEntity entity = response.getEntity();
-        String responseString = EntityUtils.toString(entity);
-        int responseCode = response.getStatusLine().getStatusCode();
-        token = response.getFirstHeader(TOKEN_HEADER).getValue();
+        // The response handler variant of execute() always consumes the entity and releases the connection.
+        return executeTimed(LOGIN_ENDPOINT, post, response -> {
+            HttpEntity entity = response.getEntity();
+            String responseString = EntityUtils.toString(entity);
+            int responseCode = response.getStatusLine().getStatusCode();
 
-        log.debug("got auth response from folio with response code: " + responseCode);
+            log.debug("got auth response from folio with response code: " + responseCode);
 
-        if (responseCode > 399) {
-            throw new Exception(responseString);
-        }
+            if (responseCode > 399 || response.getFirstHeader(TOKEN_HEADER) == null) {
+                throw new IOException(responseString);
+            }
+            return response.getFirstHeader(TOKEN_HEADER).getValue();
+        });
     }
 
-    public JSONArray executeGetForArray(String url, String queryString, Integer limit, String arrayProperty) 
+    public JSONArray executeGetForArray(String endpoint, String url, String queryString, Integer limit, 
+        String arrayProperty) throws Exception {
+
+        return new JSONArray(executeGetForList(endpoint, url, queryString, limit, objectReader(arrayProperty)));
+    }
+
+    /**
+     * Like executeGetForArray, for item records, read as FolioItems.
+     */
+    public List<FolioItem> executeGetForItems(String endpoint, String url, String queryString, Integer limit) 
         throws Exception {
 
+        return executeGetForList(endpoint, url, queryString, limit, itemReader());
+    }
+
+    /**
+     * Reads the records of one result page from a response, handing each to the consumer.
+     */
+    private interface PageReader<T> {
+        /**
+         * @return The response's totalRecords, or -1 if it has none.
+         */
+        int read(InputStream in, Consumer<T> consumer) throws IOException;
+    }
+
+    private PageReader<JSONObject> objectReader(String arrayProperty) {
+        return (in, consumer) -> codec.readArray(in, arrayProperty, consumer);
+    }
+
+    private PageReader<FolioItem> itemReader() {
+        return (in, consumer) -> codec.readItems(in, "items", consumer);
+    }
+
+    private <T> List<T> executeGetForList(String endpoint, String url, String queryString, Integer limit, 
+        PageReader<T> reader) throws Exception {
+
         if (limit == null) {
-            JSONObject responseObject = executeGet(url, queryString, limit);
-            return responseObject.getJSONArray(arrayProperty);
+            List<T> results = new ArrayList<T>();
+            executeGetForEach(endpoint, url, queryString, limit, null, reader, results::add);
+            return results;
+        }
+        else if (pageFetcher != null) {
+            return executeGetForListInParallel(endpoint, url, queryString, limit, reader);
         }
         else {
-            JSONArray results = new JSONArray();
-            int queryLimit = Integer.min(limit.intValue(), LARGE_QUERY_LIMIT);
-            int offset = 0;
-            while (offset < limit.intValue()) {
-                log.debug("Split query: request batch of " + queryLimit + " results.");
-                JSONObject responseObject = executeGet(url, queryString, queryLimit, Integer.valueOf(offset));
-                JSONArray queryArray = responseObject.getJSONArray(arrayProperty);
-                if (queryArray.length() == 0) {
-                    break;
+            List<T> results = new ArrayList<T>();
+            fetchRemainingPages(endpoint, url, queryString, limit, reader, results, 0);
+            return results;
+        }
+    }
+
+    /**
+     * Read totalRecords from the first page, then fetch the rest of the pages concurrently
+     * and reassemble them in order.
+     */
+    private <T> List<T> executeGetForListInParallel(String endpoint, String url, String queryString, Integer limit, 
+        PageReader<T> reader) throws Exception {
+
+        int queryLimit = Integer.min(limit.intValue(), LARGE_QUERY_LIMIT);
+        List<T> results = new ArrayList<T>();
+        int totalRecords = executeGetForEach(endpoint, url, queryString, queryLimit, Integer.valueOf(0), reader, 
+            results::add);
+        int firstPageLength = results.size();
+        if (firstPageLength == 0) {
+            return results;
+        }
+
+        int expected = totalRecords < 0 ? limit.intValue() : Integer.min(limit.intValue(), totalRecords);
+        List<Future<List<T>>> pages = new ArrayList<Future<List<T>>>();
+        int offset = queryLimit;
+        for (; offset < expected; offset += queryLimit) {
+            Integer pageOffset = Integer.valueOf(offset);
+            pages.add(pageFetcher.submit(() -> {
+                log.debug("Parallel query: request batch of " + queryLimit + " results at offset " + pageOffset);
+                List<T> page = new ArrayList<T>();
+                executeGetForEach(endpoint, url, queryString, queryLimit, pageOffset, reader, page::add);
+                return page;
+            }));
+        }
+
+        try {
+            int lastPageLength = firstPageLength;
+            for (Future<List<T>> page : pages) {
+                List<T> queryArray = page.get();
+                if (queryArray.isEmpty()) {
+                    return results;
                 }
-                results.putAll(queryArray);
-                offset += queryLimit;
+                results.addAll(queryArray);
+                lastPageLength = queryArray.size();
+            }
+            // totalRecords can be an estimate; if it was low, carry on one page at a time.
+            if (lastPageLength == queryLimit) {
+                fetchRemainingPages(endpoint, url, queryString, limit, reader, results, offset);
             }
             return results;
         }
+        catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception ? (Exception)e.getCause() : e;
+        }
+        finally {
+            pages.forEach(page -> page.cancel(true));
+        }
+    }
+
+    private <T> void fetchRemainingPages(String endpoint, String url, String queryString, Integer limit, 
+        PageReader<T> reader, List<T> results, int offset) throws Exception {
+
+        int queryLimit = Integer.min(limit.intValue(), LARGE_QUERY_LIMIT);
+        while (offset < limit.intValue()) {
+            log.debug("Split query: request batch of " + queryLimit + " results.");
+            List<T> queryArray = new ArrayList<T>();
+            executeGetForEach(endpoint, url, queryString, queryLimit, Integer.valueOf(offset), reader, queryArray::add);
+            if (queryArray.isEmpty()) {
+                break;
+            }
+            results.addAll(queryArray);
+            offset += queryLimit;
+        }
+    }
+
+    /**
+     * Lazily walk every result of a query, one page at a time, in id order.
+     * 
+     * Each page asks for records with an id greater than the last one seen, so the cost per page
+     * stays constant however deep the scan goes, and records changed between pages are neither 
+     * skipped nor repeated.  FOLIO errors while pulling a page surface as a RuntimeException.
+     * 
+     * @param queryString CQL query without a sortby clause.
+     */
+    public Stream<JSONObject> streamById(String endpoint, String url, String queryString, String arrayProperty) {
+        return streamPagesById(endpoint, url, queryString, arrayProperty)
+            .flatMap(page -> StreamSupport.stream(page.spliterator(), false))
+            .map(record -> (JSONObject)record);
+    }
+
+    /**
+     * Like streamById, but hands over a whole page of results at a time.
+     */
+    public Stream<JSONArray> streamPagesById(String endpoint, String url, String queryString, String arrayProperty) {
+        return streamPagesById(endpoint, url, queryString, objectReader(arrayProperty), 
+            record -> record.getString("id")).map(JSONArray::new);
+    }
+
+    /**
+     * Like streamPagesById, for item records, read as FolioItems.
+     */
+    public Stream<List<FolioItem>> streamItemPagesById(String endpoint, String url, String queryString) {
+        return streamPagesById(endpoint, url, queryString, itemReader(), FolioItem::getId);
+    }
+
+    private <T> Stream<List<T>> streamPagesById(String endpoint, String url, String queryString, 
+        PageReader<T> reader, Function<T, String> idOf) {
+
+        Iterator<List<T>> pages = new KeysetPageIterator<T>(endpoint, url, queryString, reader, idOf);
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(pages, Spliterator.ORDERED), false);
+    }
+
+    private class KeysetPageIterator<T> implements Iterator<List<T>> {
+
+        private final String endpoint;
+        private final String url;
+        private final String queryString;
+        private final PageReader<T> reader;
+        private final Function<T, String> idOf;
+
+        private String lastId = null;
+        private List<T> nextPage = null;
+        private boolean exhausted = false;
+
+        KeysetPageIterator(String endpoint, String url, String queryString, PageReader<T> reader, 
+            Function<T, String> idOf) {
+
+            this.endpoint = endpoint;
+            this.url = url;
+            this.queryString = queryString;
+            this.reader = reader;
+            this.idOf = idOf;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (nextPage == null && !exhausted) {
+                nextPage = fetchPage();
+            }
+            return nextPage != null;
+        }
+
+        @Override
+        public List<T> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            List<T> page = nextPage;
+            nextPage = null;
+            return page;
+        }
+
+        private List<T> fetchPage() {
+            String pageQuery = "(" + queryString + ")";
+            if (lastId != null) {
+                pageQuery += " and id>\"" + lastId + "\"";
+            }
+            pageQuery += ID_SORT;
+
+            log.debug("Keyset query: request batch of " + LARGE_QUERY_LIMIT + " results after " + lastId);
+            List<T> page = new ArrayList<T>();
+            try {
+                executeGetForEach(endpoint, url, pageQuery, LARGE_QUERY_LIMIT, null, reader, page::add);
+            }
+            catch (Exception e) {
+                throw new RuntimeException("Cannot load page from FOLIO after id " + lastId, e);
+            }
+            if (page.size() < LARGE_QUERY_LIMIT) {
+                exhausted = true;
+            }
+            if (page.isEmpty()) {
+                return null;
+            }
+            lastId = idOf.apply(page.get(page.size() - 1));
+            return page;
+        }
+
+    }
+
+    /**
+     * Load many records by UUID with as few calls as the URL length budget allows.
+     * 
+     * @return The records found, keyed by id.  Ids with no record are absent.
+     */
+    public Map<String, JSONObject> executeGetByIds(String endpoint, String url, Collection<String> ids, 
+        String arrayProperty) throws Exception {
+
+        Map<String, JSONObject> results = new LinkedHashMap<String, JSONObject>();
+        executeGetForValues(endpoint, url, "id", ids, arrayProperty, 
+            record -> results.put(record.getString("id"), record));
+        return results;
+    }
+
+    /**
+     * Load every record whose field exactly matches any of the values.  The values are packed into 
+     * field==("a" or "b" ...) queries, each kept within the configured URL length budget.  Sorted by id,
+     * so that paging through a query with more matches than fit in a page neither skips nor repeats any.
+     */
+    public void executeGetForValues(String endpoint, String url, String field, Collection<String> values, 
+        String arrayProperty, Consumer<JSONObject> consumer) throws Exception {
+
+        for (List<String> chunk : chunkForUrlBudget(url, field, new LinkedHashSet<String>(values))) {
+            String queryString = field + "==(" + String.join(" or ", chunk) + ")" + ID_SORT;
+            int queryLimit = Integer.max(chunk.size(), LARGE_QUERY_LIMIT);
+            int offset = 0;
+            int found;
+            do {
+                int[] count = { 0 };
+                log.debug("Batch query: " + chunk.size() + " values at offset " + offset);
+                executeGetForEach(endpoint, url, queryString, queryLimit, Integer.valueOf(offset), arrayProperty,
+                    record -> {
+                        count[0]++;
+                        consumer.accept(record);
+                    });
+                found = count[0];
+                offset += queryLimit;
+            } while (found == queryLimit);
+        }
+    }
+
+    private List<List<String>> chunkForUrlBudget(String url, String field, Collection<String> values) {
+        int budget = config.getFolio().getUrlByteBudget();
+        // Room for the base URL, the query parameter name, the enclosing parentheses, the sort and the paging 
+        // parameters.
+        int overhead = (config.getFolio().getOkapiBaseUrl() + url + "?query=").length()
+            + encodedLength(field + "==()" + ID_SORT) + "&limit=0000&offset=000000".length();
+        int separatorLength = encodedLength(" or ");
+
+        List<List<String>> chunks = new ArrayList<List<String>>();
+        List<String> chunk = new ArrayList<String>();
+        int length = overhead;
+        for (String value : values) {
+            String term = "\"" + value + "\"";
+            int termLength = encodedLength(term) + (chunk.isEmpty() ? 0 : separatorLength);
+            if (!chunk.isEmpty() && length + termLength > budget) {
+                chunks.add(chunk);
+                chunk = new ArrayList<String>();
+                length = overhead;
+                termLength = encodedLength(term);
+            }
+            chunk.add(term);
+            length += termLength;
+        }
+        if (!chunk.isEmpty()) {
+            chunks.add(chunk);
+        }
+        return chunks;
+    }
+
+    private static int encodedLength(String value) {
+        return URLEncoder.encode(value, StandardCharsets.UTF_8).length();
     }
 
-    public JSONObject executeGet(String url, String queryString) throws Exception {
-        return executeGet(url, queryString, null);
+    /**
+     * Count the records matching a query without loading any of them.
+     */
+    public int executeCount(String endpoint, String url, String queryString) throws Exception {
+        return executeGet(endpoint, url, queryString, Integer.valueOf(0)).getInt("totalRecords");
     }
 
-    public JSONObject executeGet(String url, String queryString, Integer limit) throws Exception {
-        return executeGet(url, queryString, limit, null);
+    /**
+     * @return True if any record matches the query.
+     */
+    public boolean executeExists(String endpoint, String url, String queryString) throws Exception {
+        return executeCount(endpoint, url, queryString) > 0;
     }
 
+    public JSONObject executeGet(String endpoint, String url, String queryString) throws Exception {
+        return executeGet(endpoint, url, queryString, null);
+    }
+
+    public JSONObject executeGet(String endpoint, String url, String queryString, Integer limit) throws Exception {
+        return executeGet(endpoint, url, queryString, limit, null);
+    }
 
-    public JSONObject executeGet(String url, String queryString, Integer limit, Integer offset)
+
+    public JSONObject executeGet(String endpoint, String url, String queryString, Integer limit, Integer offset)
         throws Exception {
         
+        return executeGet(endpoint, url, queryString, limit, offset, codec::readObject);
+    }
+
+    /**
+     * Decode a result page straight from the response stream, handing each record in
+     * arrayProperty to the consumer as soon as it is read.
+     * 
+     * @return The response's totalRecords, or -1 if it has none.
+     */
+    public int executeGetForEach(String endpoint, String url, String queryString, Integer limit, Integer offset, 
+        String arrayProperty, Consumer<JSONObject> consumer) throws Exception {
+
+        return executeGetForEach(endpoint, url, queryString, limit, offset, objectReader(arrayProperty), consumer);
+    }
+
+    private <T> int executeGetForEach(String endpoint, String url, String queryString, Integer limit, Integer offset, 
+        PageReader<T> reader, Consumer<T> consumer) throws Exception {
+
+        return executeGet(endpoint, url, queryString, limit, offset, in -> reader.read(in, consumer));
+    }
+
+    private interface ResponseReader<T> {
+        T read(InputStream in) throws IOException;
+    }
+
+    private <T> T executeGet(String endpoint, String url, String queryString, Integer limit, Integer offset, 
+        ResponseReader<T> reader) throws Exception {
+
         RequestBuilder builder = RequestBuilder.get()
             .setUri(config.getFolio().getOkapiBaseUrl() + url)
-            .setHeader(TENANT_HEADER, config.getFolio().getTenantId())
-            .setHeader(TOKEN_HEADER, token);
+            .setHeader(TENANT_HEADER, config.getFolio().getTenantId());
         if (queryString != null) {
             builder.addParameter("query", queryString);
         }
@@ -143,40 +579,250 @@ public class FolioConnection {
         if (offset != null) {
             builder.addParameter("offset", offset.toString());
         }    
-        HttpUriRequest getRequest = builder.build();
-
-        CloseableHttpResponse response;
-        response = client.execute(getRequest);
-        if (response.getStatusLine().getStatusCode() > 399) {
-            throw new Exception("Cannot execute request: " + response);
-        }
 
-        HttpEntity entity = response.getEntity();
-        String responseString = EntityUtils.toString(entity);
-        log.debug("Got response with code " + response.getStatusLine() + " and entity " + response.getEntity());
+        return execute(endpoint, builder, true, response -> {
+            if (response.getStatusLine().getStatusCode() > 399) {
+                throw new IOException("Cannot execute request: " + response);
+            }
+            HttpEntity entity = response.getEntity();
+            log.debug("Got response with code " + response.getStatusLine() + " and entity " + entity);
+            try (InputStream in = entity.getContent()) {
+                return reader.read(in);
+            }
+        });
+    }
 
-        JSONObject jsonObject = new JSONObject(responseString);
-        return jsonObject;
+    public boolean executePut(String endpoint, String url, JSONObject data) throws Exception {
+        return executePutForStatus(endpoint, url, data) == 204;
     }
 
-    public boolean executePut(String url, JSONObject data) throws Exception {
-        HttpUriRequest putRequest = RequestBuilder.put()
+    /**
+     * PUT a record, returning the status code so callers can tell a version conflict (409) 
+     * from other failures.  Only a record carrying its _version is retried after a transient failure.  
+     * If the first PUT did get through, the retry gets a 409 rather than overwriting anything, but the 
+     * changes are then already in FOLIO: a caller that re-loads the record and applies its changes again 
+     * on a conflict must make those changes safe to apply twice.
+     */
+    public int executePutForStatus(String endpoint, String url, JSONObject data) throws Exception {
+        RequestBuilder builder = RequestBuilder.put()
             .setUri(config.getFolio().getOkapiBaseUrl() + url)
             .setHeader(TENANT_HEADER, config.getFolio().getTenantId())
-            .setHeader(TOKEN_HEADER, token)
             .setHeader(HttpHeaders.CONTENT_TYPE, ContentType.APPLICATION_JSON.toString())
-            .setEntity(new StringEntity(data.toString(), StandardCharsets.UTF_8.name()))
+            .setEntity(new StringEntity(data.toString(), StandardCharsets.UTF_8.name()));
+
+        return execute(endpoint, builder, data.has("_version"), response -> {
+            int statusCode = response.getStatusLine().getStatusCode();
+            if (statusCode == 204) {
+                log.debug("Got successful response to PUT.");
+            }
+            else {
+                log.warn("Got response with code " + response.getStatusLine());
+            }
+            return statusCode;
+        });
+    }
+
+    /**
+     * Create or update many storage records in one call to a synchronous batch endpoint.  FOLIO
+     * applies the whole batch or none of it.
+     *
+     * @return True if every record was saved.
+     */
+    public boolean executeBatchUpsert(String endpoint, String batchUrl, String arrayProperty, 
+        Collection<JSONObject> records) throws Exception {
+
+        JSONObject data = new JSONObject();
+        data.put(arrayProperty, new JSONArray(records));
+        URI uri = new URIBuilder(config.getFolio().getOkapiBaseUrl() + batchUrl)
+            .setParameter("upsert", "true")
             .build();
+        RequestBuilder builder = RequestBuilder.post()
+            .setUri(uri)
+            .setHeader(TENANT_HEADER, config.getFolio().getTenantId())
+            .setHeader(HttpHeaders.CONTENT_TYPE, ContentType.APPLICATION_JSON.toString())
+            .setEntity(new StringEntity(data.toString(), StandardCharsets.UTF_8.name()));
 
-        CloseableHttpResponse response;
-        response = client.execute(putRequest);
-        if (response.getStatusLine().getStatusCode() == 204) {
-            log.debug("Got successful response to PUT.");
-            return true;
-        }
-        else {
-            log.warn("Got response with code " + response.getStatusLine());
+        return execute(endpoint, builder, false, response -> {
+            int statusCode = response.getStatusLine().getStatusCode();
+            if (statusCode == 201) {
+                log.debug("Got successful response to batch of " + records.size() + " records.");
+                return true;
+            }
+            HttpEntity entity = response.getEntity();
+            log.warn("Got response with code " + response.getStatusLine() + " to batch: " 
+                + (entity == null ? "" : EntityUtils.toString(entity)));
             return false;
+        });
+    }
+
+    /**
+     * @param recordType The name of the records in their endpoints' names, e.g. items
+     * @param recordUrl The storage path for single records, e.g. /item-storage/items
+     * @param batchUrl The matching synchronous batch path, e.g. /item-storage/batch/synchronous
+     * @param arrayProperty The property holding the records in both, e.g. items
+     * @return A writer that batches changes to these records, in batches of the configured size.
+     */
+    public FolioBatchWriter newBatchWriter(String recordType, String recordUrl, String batchUrl,
+        String arrayProperty) {
+        return new FolioBatchWriter(this, recordType, recordUrl, batchUrl, arrayProperty, 
+            config.getFolio().getWriteBatchSize(), config.getFolio().getConflictRetries());
+    }
+
+    /**
+     * Execute a request, through its endpoint's circuit breaker.
+     * 
+     * @param retryable True if the request is safe to repeat after a transient failure, with backoff.
+     */
+    private <T> T execute(String endpoint, RequestBuilder builder, boolean retryable, ResponseHandler<T> handler) 
+        throws Exception {
+
+        CircuitBreakers.Breaker breaker = circuitBreakers.forEndpoint(endpoint);
+        for (int attempt = 0; ; attempt++) {
+            try {
+                return execute(endpoint, builder, breaker, !retryable || !retryPolicy.canRetry(attempt), handler);
+            }
+            catch (TransientFailureException e) {
+                log.info("FOLIO call to " + endpoint + " failed (" + e.getMessage() + "); retrying.");
+                retryPolicy.pause(attempt);
+            }
+        }
+    }
+
+    /**
+     * Execute a request with the current token, once its budget allows.  If FOLIO rejects the token, 
+     * log in again and replay the request exactly once.
+     * 
+     * @param lastAttempt False to throw a TransientFailureException, rather than handle the response,
+     *   if the request fails transiently.
+     */
+    private <T> T execute(String endpoint, RequestBuilder builder, CircuitBreakers.Breaker breaker, 
+        boolean lastAttempt, ResponseHandler<T> handler) throws Exception {
+
+        Function<String, HttpUriRequest> withToken = tokenValue -> {
+            builder.setHeader(TOKEN_HEADER, tokenValue);
+            return builder.build();
+        };
+        int[] statusCode = { 0 };
+        ResponseHandler<T> recordingHandler = response -> {
+            statusCode[0] = response.getStatusLine().getStatusCode();
+            if (!lastAttempt && RetryPolicy.isTransient(statusCode[0])) {
+                throw new TransientFailureException("status " + statusCode[0]);
+            }
+            return handler.handleResponse(response);
+        };
+
+        AdaptiveConcurrencyLimit.Permit permit = getConcurrencyLimit(builder.getMethod())
+            .acquire(config.getFolio().getConcurrency().getQueueTimeout());
+        try {
+            breaker.acquire();
+        }
+        catch (CircuitOpenException e) {
+            permit.abandon();
+            throw e;
+        }
+        boolean loginFailed = false;
+        try {
+            String usedToken = tokenManager.getToken();
+            try {
+                return executeTimed(endpoint, withToken.apply(usedToken), response -> {
+                    if (response.getStatusLine().getStatusCode() == 401) {
+                        statusCode[0] = 401;
+                        throw new TokenRejectedException();
+                    }
+                    return recordingHandler.handleResponse(response);
+                });
+            }
+            catch (TokenRejectedException e) {
+                log.info("FOLIO rejected the token; logging in again and retrying the request.");
+                String newToken;
+                try {
+                    newToken = tokenManager.refresh(usedToken);
+                }
+                catch (Exception loginException) {
+                    loginFailed = true;
+                    throw loginException;
+                }
+                statusCode[0] = 0;
+                return executeTimed(endpoint, withToken.apply(newToken), recordingHandler);
+            }
+        }
+        catch (IOException e) {
+            if (!lastAttempt && statusCode[0] == 0) {
+                throw new TransientFailureException(e.toString());
+            }
+            throw e;
+        }
+        finally {
+            // A failed login says nothing about the endpoint, whose request was never replayed.
+            if (loginFailed) {
+                breaker.abandon();
+            }
+            else {
+                breaker.record(statusCode[0]);
+            }
+            permit.release(statusCode[0]);
+        }
+    }
+
+    /**
+     * Reads and writes are limited separately, so that a backlog of one doesn't hold up the other.
+     */
+    AdaptiveConcurrencyLimit getConcurrencyLimit(String method) {
+        return "GET".equals(method) ? readLimit : writeLimit;
+    }
+
+    /**
+     * Execute one HTTP request, timing it under folio.client.requests.
+     */
+    private <T> T executeTimed(String endpoint, HttpUriRequest request, ResponseHandler<T> handler) 
+        throws IOException {
+
+        Timer.Sample sample = metrics.start();
+        int[] statusCode = { 0 };
+        try {
+            return client.execute(request, response -> {
+                statusCode[0] = response.getStatusLine().getStatusCode();
+                return handler.handleResponse(response);
+            });
+        }
+        finally {
+            metrics.stop(sample, endpoint, request.getMethod(), statusCode[0]);
+        }
+    }
+
+    OkapiTokenManager getTokenManager() {
+        return tokenManager;
+    }
+
+    FolioRequestMetrics getMetrics() {
+        return metrics;
+    }
+
+    RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    CircuitBreakers getCircuitBreakers() {
+        return circuitBreakers;
+    }
+
+    /**
+     * @param endpoints Names of endpoints, as given to the calls made to them.
+     * @return False while any of these endpoints' circuit breakers is open, so that calls to it fail fast.
+     */
+    public boolean isAvailable(String... endpoints) {
+        return !circuitBreakers.isAnyOpen(endpoints);
+    }
+
+    private static class TokenRejectedException extends IOException {
+        private static final long serialVersionUID = 1L;
+    }
+
+    private static class TransientFailureException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        TransientFailureException(String message) {
+            super(message);
         }
     }
 
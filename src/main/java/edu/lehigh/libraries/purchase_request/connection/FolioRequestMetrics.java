@@ -0,0 +1,41 @@
+package edu.lehigh.libraries.purchase_request.connection;
+
+import org.springframework.boot.actuate.metrics.http.Outcome;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Times calls to the FOLIO API under folio.client.requests, tagged with the logical endpoint, 
+ * method, status and outcome, whichever client made them.
+ */
+class FolioRequestMetrics {
+
+    // Status tag for a call that got no response, as Spring's own HTTP client metrics have it.
+    private static final String NO_RESPONSE_STATUS = "CLIENT_ERROR";
+
+    private final MeterRegistry meterRegistry;
+
+    FolioRequestMetrics(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    Timer.Sample start() {
+        return Timer.start(meterRegistry);
+    }
+
+    /**
+     * @param endpoint The caller's name for what the call does, such as "items search".
+     * @param statusCode The response status, or 0 if there was no response.
+     */
+    void stop(Timer.Sample sample, String endpoint, String method, int statusCode) {
+        sample.stop(Timer.builder("folio.client.requests")
+            .description("Requests to the FOLIO API")
+            .tag("endpoint", endpoint)
+            .tag("method", method)
+            .tag("status", statusCode == 0 ? NO_RESPONSE_STATUS : String.valueOf(statusCode))
+            .tag("outcome", statusCode == 0 ? Outcome.UNKNOWN.name() : Outcome.forStatus(statusCode).name())
+            .register(meterRegistry));
+    }
+
+}
@@ -0,0 +1,144 @@
+package edu.lehigh.libraries.purchase_request.connection;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.function.Consumer;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.springframework.stereotype.Component;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import edu.lehigh.libraries.purchase_request.model.FolioItem;
+
+/**
+ * Decodes JSON responses straight from the response stream.
+ *
+ * Uses the same Jackson ObjectMapper that the RestTemplate behind WorkflowConnection uses,
+ * so only one JSON parser stack is loaded and tuned.  FOLIO records are still handed
+ * to callers as org.json objects, built directly from the token stream without first
+ * copying the body to a String.  Items can instead be read as FolioItems, which keep each
+ * record as its raw bytes rather than as a tree of objects.
+ */
+@Component
+public class JsonCodec {
+
+    private final ObjectMapper objectMapper;
+    private final JsonFactory factory;
+
+    public JsonCodec(ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper;
+        this.factory = objectMapper.getFactory();
+    }
+
+    public ObjectMapper getObjectMapper() {
+        return objectMapper;
+    }
+
+    public JSONObject readObject(InputStream in) throws IOException {
+        try (JsonParser parser = factory.createParser(in)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("Expected a JSON object");
+            }
+            return readObject(parser);
+        }
+    }
+
+    /**
+     * Emit each record of a result array one at a time, skipping over the other properties
+     * of the response.
+     *
+     * @return The response's totalRecords, or -1 if it has none.
+     */
+    public int readArray(InputStream in, String arrayProperty, Consumer<JSONObject> consumer) throws IOException {
+        return readArray(in, arrayProperty, this::readObject, consumer);
+    }
+
+    /**
+     * Like readArray, for a result array of items.
+     */
+    public int readItems(InputStream in, String arrayProperty, Consumer<FolioItem> consumer) throws IOException {
+        return readArray(in, arrayProperty, FolioItem::read, consumer);
+    }
+
+    private interface RecordReader<T> {
+        T read(JsonParser parser) throws IOException;
+    }
+
+    private <T> int readArray(InputStream in, String arrayProperty, RecordReader<T> reader, Consumer<T> consumer) 
+        throws IOException {
+
+        int totalRecords = -1;
+        boolean foundArray = false;
+        try (JsonParser parser = factory.createParser(in)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("Expected a JSON object");
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String name = parser.getCurrentName();
+                JsonToken token = parser.nextToken();
+                if (arrayProperty.equals(name) && token == JsonToken.START_ARRAY) {
+                    foundArray = true;
+                    while (parser.nextToken() == JsonToken.START_OBJECT) {
+                        consumer.accept(reader.read(parser));
+                    }
+                }
+                else if ("totalRecords".equals(name) && token == JsonToken.VALUE_NUMBER_INT) {
+                    totalRecords = parser.getIntValue();
+                }
+                else {
+                    parser.skipChildren();
+                }
+            }
+        }
+        if (!foundArray) {
+            throw new IOException("Response has no array property " + arrayProperty);
+        }
+        return totalRecords;
+    }
+
+    private JSONObject readObject(JsonParser parser) throws IOException {
+        JSONObject object = new JSONObject();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.getCurrentName();
+            parser.nextToken();
+            object.put(name, readValue(parser));
+        }
+        return object;
+    }
+
+    private JSONArray readArray(JsonParser parser) throws IOException {
+        JSONArray array = new JSONArray();
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+            array.put(readValue(parser));
+        }
+        return array;
+    }
+
+    private Object readValue(JsonParser parser) throws IOException {
+        switch (parser.currentToken()) {
+            case START_OBJECT:
+                return readObject(parser);
+            case START_ARRAY:
+                return readArray(parser);
+            case VALUE_STRING:
+                return parser.getText();
+            case VALUE_NUMBER_INT:
+            case VALUE_NUMBER_FLOAT:
+                return parser.getNumberValue();
+            case VALUE_TRUE:
+                return Boolean.TRUE;
+            case VALUE_FALSE:
+                return Boolean.FALSE;
+            case VALUE_NULL:
+                return JSONObject.NULL;
+            default:
+                throw new IOException("Unexpected JSON token " + parser.currentToken());
+        }
+    }
+
+}
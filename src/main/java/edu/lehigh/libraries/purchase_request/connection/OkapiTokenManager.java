@@ -0,0 +1,163 @@
+package edu.lehigh.libraries.purchase_request.connection;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.json.JSONObject;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Holds the current Okapi token and keeps it fresh.
+ *
+ * Readers get the token from an atomic reference and never block.  Logins are serialized
+ * so that only one is in flight at a time, whether triggered by the background refresh
+ * or by a request that got a 401.
+ */
+@Slf4j
+class OkapiTokenManager {
+
+    // How long to wait before retrying a failed background refresh.
+    private static final Duration REFRESH_RETRY_DELAY = Duration.ofSeconds(30);
+
+    interface Login {
+        String login() throws Exception;
+    }
+
+    private static class Token {
+        final String value;
+        final Instant expires;
+
+        Token(String value, Instant expires) {
+            this.value = value;
+            this.expires = expires;
+        }
+    }
+
+    private final Login login;
+    private final Duration defaultLifetime;
+    private final Duration refreshMargin;
+
+    private final AtomicReference<Token> current = new AtomicReference<Token>();
+    private final ReentrantLock loginLock = new ReentrantLock();
+    private final ScheduledExecutorService refresher;
+    private ScheduledFuture<?> scheduledRefresh;
+
+    OkapiTokenManager(Login login, Duration defaultLifetime, Duration refreshMargin) {
+        this.login = login;
+        this.defaultLifetime = defaultLifetime;
+        this.refreshMargin = refreshMargin;
+        this.refresher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "okapi-token-refresh");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Log in for the first time.
+     */
+    void start() throws Exception {
+        refresh(null);
+    }
+
+    void shutdown() {
+        refresher.shutdownNow();
+    }
+
+    String getToken() {
+        Token token = current.get();
+        return token == null ? null : token.value;
+    }
+
+    /**
+     * Log in again, unless another thread has already replaced the stale token.
+     *
+     * @param staleToken The token that was found not to work, or null to force a login.
+     * @return The current token.
+     */
+    String refresh(String staleToken) throws Exception {
+        loginLock.lock();
+        try {
+            Token token = current.get();
+            if (staleToken != null && token != null && !token.value.equals(staleToken)) {
+                log.debug("Token already refreshed by another thread.");
+                return token.value;
+            }
+            String value = login.login();
+            Token newToken = new Token(value, findExpiration(value));
+            current.set(newToken);
+            log.debug("Logged in to FOLIO; token expires at " + newToken.expires);
+            scheduleRefresh(newToken);
+            return newToken.value;
+        }
+        finally {
+            loginLock.unlock();
+        }
+    }
+
+    private void scheduleRefresh(Token token) {
+        Duration delay = Duration.between(Instant.now(), token.expires.minus(refreshMargin));
+        if (delay.isNegative()) {
+            delay = Duration.ZERO;
+        }
+        scheduleRefresh(delay, token.value);
+    }
+
+    private void scheduleRefresh(Duration delay, String tokenValue) {
+        if (scheduledRefresh != null) {
+            scheduledRefresh.cancel(false);
+        }
+        scheduledRefresh = refresher.schedule(() -> backgroundRefresh(tokenValue),
+            delay.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    private void backgroundRefresh(String tokenValue) {
+        try {
+            refresh(tokenValue);
+        }
+        catch (Exception e) {
+            log.warn("Background FOLIO token refresh failed; will retry.", e);
+            loginLock.lock();
+            try {
+                if (tokenValue.equals(getToken())) {
+                    scheduleRefresh(REFRESH_RETRY_DELAY, tokenValue);
+                }
+            }
+            finally {
+                loginLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Okapi tokens are JWTs.  Use the exp claim when present, otherwise assume the default lifetime.
+     */
+    private Instant findExpiration(String tokenValue) {
+        Instant defaultExpiration = Instant.now().plus(defaultLifetime);
+        String[] parts = tokenValue.split("\\.");
+        if (parts.length < 2) {
+            return defaultExpiration;
+        }
+        try {
+            String payload = new String(Base64.getUrlDecoder().decode(parts[1]), StandardCharsets.UTF_8);
+            JSONObject claims = new JSONObject(payload);
+            if (claims.has("exp")) {
+                return Instant.ofEpochSecond(claims.getLong("exp"));
+            }
+        }
+        catch (Exception e) {
+            log.debug("Could not read expiration from token; using default lifetime.", e);
+        }
+        return defaultExpiration;
+    }
+
+}
@@ -0,0 +1,50 @@
+package edu.lehigh.libraries.purchase_request.connection;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+import edu.lehigh.libraries.purchase_request.lost_items_client.config.PropertiesConfig;
+
+/**
+ * When and how long to back off before repeating a call that failed transiently: no response at all,
+ * a throttled response (429), or a gateway error (502-504).  Each wait is random between zero and a
+ * cap that doubles with each retry, so that many callers failing together don't retry together.
+ */
+class RetryPolicy {
+
+    private final int maxAttempts;
+    private final long initialBackoffMillis;
+    private final long maxBackoffMillis;
+
+    RetryPolicy(PropertiesConfig.Retry config) {
+        this.maxAttempts = Integer.max(1, config.getMaxAttempts());
+        this.initialBackoffMillis = config.getInitialBackoffMillis();
+        this.maxBackoffMillis = config.getMaxBackoffMillis();
+    }
+
+    /**
+     * @param statusCode The response status, or 0 if there was no response.
+     */
+    static boolean isTransient(int statusCode) {
+        return statusCode == 0 || statusCode == 429 || (statusCode >= 502 && statusCode <= 504);
+    }
+
+    /**
+     * @param attempt The attempt that just failed, counting from 0.
+     */
+    boolean canRetry(int attempt) {
+        return attempt + 1 < maxAttempts;
+    }
+
+    /**
+     * @param attempt The attempt that just failed, counting from 0.
+     */
+    long backoffMillis(int attempt) {
+        long cap = Math.min(maxBackoffMillis, initialBackoffMillis << Math.min(attempt, 20));
+        return cap <= 0 ? 0 : ThreadLocalRandom.current().nextLong(cap + 1);
+    }
+
+    void pause(int attempt) throws InterruptedException {
+        Thread.sleep(backoffMillis(attempt));
+    }
+
+}
@@ -1,20 +1,23 @@
 package edu.lehigh.libraries.purchase_request.connection;
 
-import java.net.URI;
-import java.net.URISyntaxException;
+import java.util.function.Supplier;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpEntity;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Component;
 import org.springframework.web.client.HttpClientErrorException;
 import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.client.RestClientResponseException;
 import org.springframework.web.client.RestTemplate;
 
 import edu.lehigh.libraries.purchase_request.lost_items_client.config.PropertiesConfig;
 import edu.lehigh.libraries.purchase_request.model.PurchaseRequest;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.extern.slf4j.Slf4j;
 
 @Component
@@ -26,14 +29,29 @@ public class WorkflowConnection {
 
     private HttpHeaders headers;
     private PropertiesConfig config;
+    private RetryPolicy retryPolicy;
+    private CircuitBreakers circuitBreakers;
 
     private String BASE_URL;
 
-    public WorkflowConnection(PropertiesConfig config) {
+    private static final String SUBMIT_ENDPOINT = "purchase requests submit";
+    private static final String GET_ENDPOINT = "purchase requests by key";
+
+    public WorkflowConnection(PropertiesConfig config, MeterRegistry meterRegistry) {
         this.config = config;
         initHeaders();
 
         this.BASE_URL = config.getWorkflowServer().getBaseUrl();
+        this.retryPolicy = new RetryPolicy(config.getRetry());
+        this.circuitBreakers = new CircuitBreakers("workflow", config.getCircuitBreaker(), meterRegistry);
+    }
+
+    /**
+     * @return False while the circuit breaker for submitting or loading purchase requests is open, so that 
+     *   calls to it fail fast.
+     */
+    public boolean isAvailable() {
+        return !circuitBreakers.isAnyOpen(SUBMIT_ENDPOINT, GET_ENDPOINT);
     }
 
     private void initHeaders() {
@@ -43,12 +61,15 @@ public class WorkflowConnection {
             config.getWorkflowServer().getPassword());
     }
 
+    /**
+     * Not retried: if a submission got through but its response was lost, a retry would submit it twice.
+     */
     public PurchaseRequest submitRequest(PurchaseRequest purchaseRequest) {
         HttpEntity<Object> request = new HttpEntity<Object>(purchaseRequest, headers);
-        Object resultObject = restTemplate.postForObject(
+        Object resultObject = execute(SUBMIT_ENDPOINT, false, () -> restTemplate.postForObject(
             BASE_URL + "/purchase-requests", 
             request,
-            PurchaseRequest.class);
+            PurchaseRequest.class));
         PurchaseRequest result = (PurchaseRequest)resultObject;
         log.debug("Submitted request with result " + result);
         result.setExistingFolioItem(purchaseRequest.getExistingFolioItem());
@@ -56,35 +77,77 @@ public class WorkflowConnection {
         return result;
     }
 
+    /**
+     * @return The purchase request, or null if the workflow server has no request with that key.
+     */
     public PurchaseRequest getPurchaseRequest(String key) {
         HttpEntity<?> entity = new HttpEntity<>(headers);
-        URI uri;
-        try {
-            uri = new URI(BASE_URL + "/purchase-requests/" + key);
-        }
-        catch (URISyntaxException e) {
-            log.error("Bad URL syntax: ", e);
-            return null;
-        }
         ResponseEntity<PurchaseRequest> responseEntity;
         try {
-             responseEntity = restTemplate.exchange(
-                uri,
+            // A URI template, so that request metrics group by endpoint rather than by key.
+            responseEntity = execute(GET_ENDPOINT, true, () -> restTemplate.exchange(
+                BASE_URL + "/purchase-requests/{key}",
                 HttpMethod.GET,
                 entity,
-                PurchaseRequest.class);
+                PurchaseRequest.class,
+                key));
         }
         catch (HttpClientErrorException.NotFound e) {
             log.warn("PR not found: " + key);
             return null;
         }
         catch (HttpServerErrorException e) {
+            // Not the same as not found: let the caller try again later.
             log.warn("Server error exception connecting to workflow server", e);
-            return null;
+            throw e;
         }
         PurchaseRequest result = responseEntity.getBody();
         log.debug("Loaded PR: " + result);
         return result;
     }
 
+    /**
+     * Make a call through its endpoint's circuit breaker.
+     * 
+     * @param retryable True if the call is safe to repeat after a transient failure, with backoff.
+     */
+    private <T> T execute(String endpoint, boolean retryable, Supplier<T> call) {
+        CircuitBreakers.Breaker breaker = circuitBreakers.forEndpoint(endpoint);
+        for (int attempt = 0; ; attempt++) {
+            breaker.acquire();
+            // Left 0, a failure, if the call throws anything other than an error response, such as
+            // when the response can't be read.
+            int statusCode = 0;
+            RuntimeException failure;
+            try {
+                T result = call.get();
+                statusCode = HttpStatus.OK.value();
+                return result;
+            }
+            catch (ResourceAccessException e) {
+                statusCode = 0;
+                failure = e;
+            }
+            catch (RestClientResponseException e) {
+                statusCode = e.getRawStatusCode();
+                failure = e;
+            }
+            finally {
+                breaker.record(statusCode);
+            }
+
+            if (!retryable || !retryPolicy.canRetry(attempt) || !RetryPolicy.isTransient(statusCode)) {
+                throw failure;
+            }
+            log.info("Workflow server call to " + endpoint + " failed (" + failure.getMessage() + "); retrying.");
+            try {
+                retryPolicy.pause(attempt);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw failure;
+            }
+        }
+    }
+
 }
@@ -1,10 +1,16 @@
 package edu.lehigh.libraries.purchase_request.lost_items_client.config;
 
+import java.nio.file.Paths;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
 import org.springframework.boot.web.client.RestTemplateBuilder;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.web.client.RestTemplate;
 
+import edu.lehigh.libraries.purchase_request.lost_items_client.state.FileLeaseStore;
+import edu.lehigh.libraries.purchase_request.lost_items_client.state.LeaseStore;
+
 @Configuration
 public class BeanConfig { 
 
@@ -13,4 +19,15 @@ public class BeanConfig {
 		return builder.build();
 	}
 
+    /**
+     * Leases for sharding, in a shared file unless another LeaseStore bean is defined.
+     */
+    @Bean
+    @ConditionalOnMissingBean(LeaseStore.class)
+    public LeaseStore leaseStore(PropertiesConfig config) {
+        String leaseFile = config.getSharding().getLeaseFile();
+        return new FileLeaseStore(leaseFile != null 
+            ? Paths.get(leaseFile) : Paths.get(config.getStateDirectory(), "leases.properties"));
+    }
+
 }
@@ -25,6 +25,18 @@ public class PropertiesConfig {
     private Schedule schedule;
     private Folio folio;
     private WorkflowServer workflowServer;
+    private Pipeline pipeline = new Pipeline();
+    private Incremental incremental = new Incremental();
+    private WorkflowIndex workflowIndex = new WorkflowIndex();
+    private DecisionPolling decisionPolling = new DecisionPolling();
+    private Retry retry = new Retry();
+    private CircuitBreaker circuitBreaker = new CircuitBreaker();
+    private Sharding sharding = new Sharding();
+
+    /**
+     * Directory for files the client keeps between runs, such as polling watermarks.
+     */
+    private String stateDirectory = "state";
 
     @Getter @Setter
     public static class Schedule {
@@ -84,6 +96,36 @@ public class PropertiesConfig {
          */
         private Integer workflowItemsLimit = null;
 
+        /**
+         * How many pages of a large FOLIO query to fetch at once.  1 fetches pages one after another.
+         */
+        private int pageFetchParallelism = 1;
+
+        /**
+         * Maximum length in bytes of the URL for a batched lookup of many records by id.
+         */
+        private int urlByteBudget = 4000;
+
+        /**
+         * How many times to re-load an item and retry a write after a version conflict.
+         */
+        private int conflictRetries = 2;
+
+        /**
+         * How many record updates to gather into one call to a FOLIO batch storage endpoint.
+         */
+        private int writeBatchSize = 50;
+
+        /**
+         * Minutes to remember an item's FOLIO circulation count before counting it again.
+         */
+        private int circulationCountCacheTtlMinutes = 1440;
+
+        /**
+         * Maximum number of item circulation counts to remember.
+         */
+        private int circulationCountCacheSize = 10000;
+
         /**
          * UUID of the FOLIO instance status representing a withdrawn record.  Empty to skip setting the instance status.
          */
@@ -110,6 +152,16 @@ public class PropertiesConfig {
 
         private ItemNotes itemNotes;
 
+        private Http http = new Http();
+
+        private Async async = new Async();
+
+        private Concurrency concurrency = new Concurrency();
+
+        private Token token = new Token();
+
+        private RecordCache recordCache = new RecordCache();
+
         @Getter @Setter
         public static class ItemNotes {
 
@@ -136,6 +188,149 @@ public class PropertiesConfig {
 
         }
 
+        @Getter @Setter
+        public static class Http {
+
+            /**
+             * Maximum number of pooled connections to FOLIO across all routes.
+             */
+            private int maxConnectionsTotal = 20;
+
+            /**
+             * Maximum number of pooled connections to any one FOLIO host.
+             */
+            private int maxConnectionsPerRoute = 10;
+
+            /**
+             * Milliseconds to wait when opening a new connection.
+             */
+            private int connectTimeout = 10000;
+
+            /**
+             * Milliseconds to wait for data on an open connection.
+             */
+            private int socketTimeout = 60000;
+
+            /**
+             * Milliseconds to wait for a free connection from the pool.
+             */
+            private int connectionRequestTimeout = 30000;
+
+            /**
+             * How long a connection may be kept alive for reuse when the server does not say, in seconds.
+             */
+            private int keepAliveSeconds = 60;
+
+            /**
+             * Pooled connections idle longer than this many seconds are closed.
+             */
+            private int idleEvictionSeconds = 30;
+
+            /**
+             * Re-validate a pooled connection before reuse if it has been idle this many milliseconds.
+             */
+            private int validateAfterInactivity = 2000;
+
+        }
+
+        @Getter @Setter
+        public static class Async {
+
+            /**
+             * Threads that the asynchronous FOLIO client uses to handle responses.
+             */
+            private int threads = 4;
+
+        }
+
+        @Getter @Setter
+        public static class Concurrency {
+
+            /**
+             * Limits on GET requests in flight at once.
+             */
+            private Budget reads = new Budget(2, 10, 40);
+
+            /**
+             * Limits on PUT and POST requests in flight at once.
+             */
+            private Budget writes = new Budget(1, 4, 10);
+
+            /**
+             * Fraction of its limit that a budget keeps when FOLIO is overloaded.
+             */
+            private double backoffRatio = 0.75;
+
+            /**
+             * Responses slower than this many milliseconds count as a sign of overload.
+             */
+            private int slowResponseMillis = 5000;
+
+            /**
+             * Milliseconds a blocking call waits for its turn before failing.
+             */
+            private int queueTimeout = 60000;
+
+            @Getter @Setter
+            public static class Budget {
+
+                /**
+                 * The limit never falls below this many requests.
+                 */
+                private int floor;
+
+                /**
+                 * The limit to start with.
+                 */
+                private int initial;
+
+                /**
+                 * The limit never rises above this many requests.
+                 */
+                private int ceiling;
+
+                public Budget() {}
+
+                Budget(int floor, int initial, int ceiling) {
+                    this.floor = floor;
+                    this.initial = initial;
+                    this.ceiling = ceiling;
+                }
+
+            }
+
+        }
+
+        @Getter @Setter
+        public static class Token {
+
+            /**
+             * Seconds to assume an Okapi token is valid for when the token itself carries no expiration.
+             */
+            private int defaultLifetimeSeconds = 600;
+
+            /**
+             * Seconds before a token's expiration to log in again in the background.
+             */
+            private int refreshMarginSeconds = 60;
+
+        }
+
+        @Getter @Setter
+        public static class RecordCache {
+
+            /**
+             * Maximum number of holdings records, and separately of instances, to cache.
+             */
+            private int maxSize = 5000;
+
+            /**
+             * Seconds to cache a holdings record or instance.
+             */
+            private int ttlSeconds = 600;
+
+        }
+
     }
 
     @Getter @Setter
@@ -168,4 +363,167 @@ public class PropertiesConfig {
 
     }
 
+    @Getter @Setter
+    public static class Pipeline {
+
+        /**
+         * Threads enriching new lost items with FOLIO data before submission.
+         */
+        private int enrichWorkers = 2;
+
+        /**
+         * Threads submitting new lost items to the Workflow Proxy Server.
+         */
+        private int submitWorkers = 1;
+
+        /**
+         * Threads marking submitted items in FOLIO.
+         */
+        private int markWorkers = 1;
+
+        /**
+         * Threads checking the Workflow Proxy Server for decisions on items in the workflow.
+         */
+        private int decisionCheckWorkers = 4;
+
+        /**
+         * Threads writing decisions to FOLIO.
+         */
+        private int decisionWriteWorkers = 1;
+
+        /**
+         * How many items may wait between any two stages.
+         */
+        private int queueCapacity = 50;
+
+    }
+
+    @Getter @Setter
+    public static class Incremental {
+
+        /**
+         * Only ask FOLIO for new lost items updated since the last successful run.
+         */
+        private boolean enabled = false;
+
+        /**
+         * Minutes before the last successful run to look back, to allow for clock skew and slow writes.
+         */
+        private int overlapMinutes = 10;
+
+        /**
+         * Hours between full scans for new lost items, which catch anything incremental runs missed.
+         */
+        private int fullScanIntervalHours = 24;
+
+    }
+
+    @Getter @Setter
+    public static class WorkflowIndex {
+
+        /**
+         * Keep a local index of items in the workflow and poll for decisions from it, instead of 
+         * searching FOLIO for them each time.
+         */
+        private boolean enabled = false;
+
+        /**
+         * Hours between rebuilding the local index from a search of FOLIO.
+         */
+        private int reconcileIntervalHours = 24;
+
+    }
+
+    @Getter @Setter
+    public static class DecisionPolling {
+
+        /**
+         * Fewest minutes to wait before checking an undecided purchase request again.
+         */
+        private int initialIntervalMinutes = 60;
+
+        /**
+         * Minutes to wait before checking an undecided purchase request again, as a percentage of its age.
+         */
+        private int intervalPercentOfAge = 10;
+
+        /**
+         * Maximum minutes to wait between checks of an undecided purchase request.
+         */
+        private int maxIntervalMinutes = 10080;
+
+        /**
+         * Minutes to wait before checking again for a purchase request the workflow server did not find.
+         */
+        private int notFoundIntervalMinutes = 10080;
+
+    }
+
+    @Getter @Setter
+    public static class Retry {
+
+        /**
+         * Attempts, including the first, at a FOLIO or workflow server call that fails transiently and is safe to repeat.
+         */
+        private int maxAttempts = 3;
+
+        /**
+         * Milliseconds to back off before the first retry, at most.  Doubles for each retry after, and each wait is random up to that.
+         */
+        private int initialBackoffMillis = 500;
+
+        /**
+         * Maximum milliseconds to back off before any retry.
+         */
+        private int maxBackoffMillis = 10000;
+
+    }
+
+    @Getter @Setter
+    public static class CircuitBreaker {
+
+        /**
+         * Consecutive failures of one endpoint after which calls to it fail fast.
+         */
+        private int failureThreshold = 5;
+
+        /**
+         * Seconds to fail fast before letting a trial call through to the endpoint.
+         */
+        private int openSeconds = 60;
+
+    }
+
+    @Getter @Setter
+    public static class Sharding {
+
+        /**
+         * Split the items among the nodes running the client, each node handling only its own share.
+         */
+        private boolean enabled = false;
+
+        /**
+         * Number of ranges of item ids to split the items into, from 1 to 256.  Must be the same on every node.
+         */
+        private int shardCount = 16;
+
+        /**
+         * This node's name in the lease store.  Defaults to the process id and host name.
+         */
+        private String nodeId = null;
+
+        /**
+         * Seconds that a node's hold on its shards lasts without being renewed.  Renewed every third of that.
+         * The nodes' clocks must agree to within a quarter of this.
+         */
+        private int leaseSeconds = 120;
+
+        /**
+         * File holding the leases, on a volume shared by every node.  Every node must use the same file, while each
+         * keeps its own state directory.  Defaults to leases.properties in the state directory.
+         */
+        private String leaseFile = null;
+
+    }
+
 }
@@ -1,21 +1,35 @@
 package edu.lehigh.libraries.purchase_request.lost_items_client.service;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
-import org.json.JSONArray;
 import org.json.JSONObject;
 import org.springframework.beans.factory.annotation.Autowired;
 
+import edu.lehigh.libraries.purchase_request.connection.AsyncFolioConnection;
+import edu.lehigh.libraries.purchase_request.connection.FolioBatchWriter;
 import edu.lehigh.libraries.purchase_request.connection.FolioConnection;
 import edu.lehigh.libraries.purchase_request.connection.WorkflowConnection;
 import edu.lehigh.libraries.purchase_request.lost_items_client.config.PropertiesConfig;
+import edu.lehigh.libraries.purchase_request.model.FolioItem;
 import edu.lehigh.libraries.purchase_request.model.PurchaseRequest;
 import lombok.extern.slf4j.Slf4j;
 
 @Slf4j
 abstract class AbstractLostItemsService {
 
+    // FOLIO endpoints every run depends on; see isDependencyUnavailable.
+    static final String ITEMS_SEARCH_ENDPOINT = "items search";
+    static final String ITEMS_UPDATE_ENDPOINT = "items update";
+
     final String FOLIO_CODE_IN_WORKFLOW;
     final String FOLIO_ITEM_NOTE_WORKFLOW_TAG;
     final String FOLIO_ITEM_NOTE_WORKFLOW_PATRON_REQUESTING;
@@ -25,8 +39,20 @@ abstract class AbstractLostItemsService {
     @Autowired
     FolioConnection folio;
 
+    @Autowired
+    AsyncFolioConnection asyncFolio;
+
+    @Autowired
+    InventoryRecordCache recordCache;
+
     @Autowired
     WorkflowConnection workflow;
+
+    @Autowired
+    MonitorRunMetrics runMetrics;
+
+    @Autowired
+    ShardCoordinator shards;
  
     AbstractLostItemsService(PropertiesConfig config) {
         this.config = config;
@@ -36,188 +62,292 @@ abstract class AbstractLostItemsService {
     }
     
     List<PurchaseRequest> loadFolioItemsAsPurchaseRequests(String queryString, Integer limit) { 
+        List<PurchaseRequest> purchaseRequests = new ArrayList<PurchaseRequest>();
+        for (FolioItem item : loadFolioItems(queryString, limit)) {
+            PurchaseRequest purchaseRequest = parseItemAsPurchaseRequest(item);
+            if (purchaseRequest != null) {
+                purchaseRequests.add(purchaseRequest);
+            }
+        }
+        return purchaseRequests;
+    }
+
+    /**
+     * Like loadFolioItemsAsPurchaseRequests, but with no limit the items are pulled lazily, 
+     * one page at a time in id order, so any number of matching items can be processed.
+     * 
+     * @param queryString CQL query without a sortby clause.
+     * @param sortBy Sort clause to add when paging by offset with a limit, or null.
+     */
+    Stream<PurchaseRequest> streamFolioItemsAsPurchaseRequests(String queryString, String sortBy, Integer limit) {
+        return streamFolioItems(queryString, sortBy, limit)
+            .map(this::parseItemAsPurchaseRequest)
+            .filter(Objects::nonNull);
+    }
+
+    /**
+     * Like streamFolioItemsAsPurchaseRequests, but leaves parsing each item to the caller.
+     * Records for prefetchAdditionalFields are still loaded a page at a time.
+     */
+    Stream<FolioItem> streamFolioItems(String queryString, String sortBy, Integer limit) {
+        if (limit != null) {
+            String sortedQuery = sortBy == null ? queryString : queryString + " sortby " + sortBy;
+            return loadFolioItems(sortedQuery, limit).stream();
+        }
+        log.debug("query string: " + queryString);
+        return folio.streamItemPagesById(ITEMS_SEARCH_ENDPOINT, "/inventory/items", queryString)
+            .flatMap(page -> {
+                prefetchAdditionalFields(page);
+                return page.stream();
+            });
+    }
+
+    private List<FolioItem> loadFolioItems(String queryString, Integer limit) {
         log.debug("query string: " + queryString);
         String url = "/inventory/items";
-        List<PurchaseRequest> purchaseRequests = new ArrayList<PurchaseRequest>();
         try {
-            JSONArray items = folio.executeGetForArray(url, queryString, limit, "items");
-            log.debug("Found " + items.length() + " results.");
-            for (Object itemObject: items) {
-                try {
-                    JSONObject item = (JSONObject)itemObject;
-                    PurchaseRequest purchaseRequest = parseItem(item);
-                    parseItemAdditionalFields(purchaseRequest, item);
-                    purchaseRequests.add(purchaseRequest);
-                }
-                catch (Exception e) {
-                    log.error("Exception parsing lost item: ", e);
-                }
-            }
+            List<FolioItem> items = folio.executeGetForItems(ITEMS_SEARCH_ENDPOINT, url, queryString, limit);
+            log.debug("Found " + items.size() + " results.");
+            prefetchAdditionalFields(items);
+            return items;
         }
         catch (Exception e) {
             log.error("Exception querying for lost items: ", e);
+            return new ArrayList<FolioItem>();
         }
-        return purchaseRequests;
     }
 
-    void parseItemAdditionalFields(PurchaseRequest purchaseRequest, JSONObject item) {}
+    PurchaseRequest parseItemAsPurchaseRequest(FolioItem item) {
+        try {
+            PurchaseRequest purchaseRequest = parseItem(item);
+            parseItemAdditionalFields(purchaseRequest, item);
+            return purchaseRequest;
+        }
+        catch (Exception e) {
+            log.error("Exception parsing lost item: ", e);
+            return null;
+        }
+    }
+
+    /**
+     * Load in batches, ahead of parsing, any records that parseItemAdditionalFields needs for a page of items.
+     */
+    void prefetchAdditionalFields(List<FolioItem> items) {}
+
+    void parseItemAdditionalFields(PurchaseRequest purchaseRequest, FolioItem item) {}
+
+    /**
+     * @return True while an endpoint every run needs is failing fast, when a run should stop taking on 
+     *   new items rather than fail each of them in turn.  Endpoints only some items need, such as loans, 
+     *   don't end the run.
+     */
+    boolean isDependencyUnavailable() {
+        if (!folio.isAvailable(ITEMS_SEARCH_ENDPOINT, ITEMS_UPDATE_ENDPOINT)) {
+            log.warn("FOLIO is unavailable; ending the run early.");
+            return true;
+        }
+        if (!workflow.isAvailable()) {
+            log.warn("The workflow server is unavailable; ending the run early.");
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return True if this node has lost a shard the run covers, when the run should stop rather than
+     *   go on with items another node may now be handling.
+     */
+    boolean isShardLost(Set<Shard> runShards) {
+        if (!shards.holdsAll(runShards)) {
+            log.warn("This node no longer holds all of shards " + runShards + "; ending the run early.");
+            return true;
+        }
+        return false;
+    }
 
     String buildWorkflowPhrase() {
         return " (statisticalCodeIds=" + FOLIO_CODE_IN_WORKFLOW + ") ";
     }
 
+    /**
+     * @return A phrase limiting a query to the items in the shards, or an empty string for every item.
+     */
+    String buildShardPhrase(Set<Shard> runShards) {
+        List<String> ranges = runShards.stream()
+            .map(Shard::toCql)
+            .filter(Objects::nonNull)
+            .collect(Collectors.toList());
+        if (ranges.isEmpty()) {
+            return "";
+        }
+        return " and (" + String.join(" or ", ranges) + ")";
+    }
+
+    /**
+     * @return The holding record, possibly cached.  Do not change it; see newHoldingsWriter.
+     */
     JSONObject getHoldingRecord(String id) { 
-        log.debug("Loading holding record: " + id);
-        String url = "/holdings-storage/holdings/" + id;
-        JSONObject holding;
         try {
-            holding = folio.executeGet(url, null);
+            return recordCache.getHoldings().get(id, this::loadHoldingRecord);
         }
         catch (Exception e) {
             log.error("Exception querying for holding: ", e);
             return null;
         }
-        return holding;
     }
 
+    private JSONObject loadHoldingRecord(String id) throws Exception {
+        log.debug("Loading holding record: " + id);
+        String url = "/holdings-storage/holdings/" + id;
+        return folio.executeGet("holdings by id", url, null);
+    }
+
+    /**
+     * @return The instance, possibly cached.  Do not change it; see newInstanceWriter.
+     */
     JSONObject getInstance(String id) { 
-        log.debug("Loading instance: " + id);
-        String url = "/inventory/instances/" + id;
-        JSONObject holding;
         try {
-            holding = folio.executeGet(url, null);
+            return recordCache.getInstances().get(id, this::loadInstance);
         }
         catch (Exception e) {
             log.error("Exception querying for instance: ", e);
             return null;
         }
-        return holding;
     }
 
-    private PurchaseRequest parseItem(JSONObject item) {
-        PurchaseRequest purchaseRequest = new PurchaseRequest();
+    private JSONObject loadInstance(String id) throws Exception {
+        log.debug("Loading instance: " + id);
+        String url = "/inventory/instances/" + id;
+        return folio.executeGet("instances by id", url, null);
+    }
 
-        String title = item.getString("title");
-        purchaseRequest.setTitle(title);
+    /**
+     * Load into the cache, in batches, whichever of these holding records it doesn't already have.
+     * 
+     * @return All the requested holding records that could be found, keyed by id.
+     */
+    Map<String, JSONObject> prefetchHoldingRecords(Collection<String> ids) {
+        return prefetch("holdings by ids", ids, recordCache.getHoldings(), "/holdings-storage/holdings",
+            "holdingsRecords");
+    }
 
-        JSONArray contributorNames = item.getJSONArray("contributorNames");
-        if (contributorNames.length() > 0) {
-            String contributor = contributorNames.getJSONObject(0).getString("name");
-            purchaseRequest.setContributor(contributor);
-        }
+    /**
+     * Load into the cache, in batches, whichever of these instances it doesn't already have.
+     * 
+     * @return All the requested instances that could be found, keyed by id.
+     */
+    Map<String, JSONObject> prefetchInstances(Collection<String> ids) {
+        return prefetch("instances by ids", ids, recordCache.getInstances(), "/inventory/instances", "instances");
+    }
 
-        String barcode = item.optString("barcode");
-        purchaseRequest.setRequesterComments("Lost Item.  Barcode: " + barcode);
+    private Map<String, JSONObject> prefetch(String endpoint, Collection<String> ids,
+        TtlCache<String, JSONObject> cache, String url, String arrayProperty) {
 
-        JSONArray notes = item.getJSONArray("notes");
-        for (Object noteObject: notes) {
-            JSONObject note = (JSONObject)noteObject;
-            String typeId = note.getString("itemNoteTypeId");
-            if (FOLIO_ITEM_NOTE_WORKFLOW_TAG.equals(typeId)) {
-                purchaseRequest.setKey(note.getString("note"));
+        Map<String, JSONObject> records = new HashMap<String, JSONObject>();
+        List<String> missing = new ArrayList<String>();
+        for (String id : ids) {
+            JSONObject cached = cache.get(id);
+            if (cached != null) {
+                records.put(id, cached);
             }
-            if (FOLIO_ITEM_NOTE_WORKFLOW_PATRON_REQUESTING.equals(typeId)) {
-                purchaseRequest.setRequesterUsername(note.getString("note"));
+            else {
+                missing.add(id);
             }
         }
+        if (missing.isEmpty()) {
+            return records;
+        }
 
-        String callNumber = item.optString("callNumber");
-        if (callNumber.length() == 0) {
-            JSONObject effectiveCallNumberComponents = item.getJSONObject("effectiveCallNumberComponents");
-            callNumber = effectiveCallNumberComponents.optString("callNumber");
-            if (callNumber.length() == 0) {
-                callNumber = null;
-            }
+        log.debug("Loading " + missing.size() + " records from " + url);
+        try {
+            Map<String, JSONObject> loaded = folio.executeGetByIds(endpoint, url, missing, arrayProperty);
+            loaded.forEach(cache::put);
+            records.putAll(loaded);
+        }
+        catch (Exception e) {
+            log.error("Exception querying for " + arrayProperty + ": ", e);
         }
-        purchaseRequest.setCallNumber(callNumber);
+        return records;
+    }
+
+    /**
+     * Only reads the fields the item decoded when it was loaded; the rest of the record is not touched.
+     */
+    private PurchaseRequest parseItem(FolioItem item) {
+        PurchaseRequest purchaseRequest = new PurchaseRequest();
 
-        String id = item.getString("id");
-        purchaseRequest.setExistingFolioItemId(id);
+        String title = item.getTitle();
+        purchaseRequest.setTitle(title);
+        purchaseRequest.setContributor(item.getContributor());
+
+        String barcode = item.getBarcode() == null ? "" : item.getBarcode();
+        purchaseRequest.setRequesterComments("Lost Item.  Barcode: " + barcode);
 
+        purchaseRequest.setKey(item.findNote(FOLIO_ITEM_NOTE_WORKFLOW_TAG));
+        purchaseRequest.setRequesterUsername(item.findNote(FOLIO_ITEM_NOTE_WORKFLOW_PATRON_REQUESTING));
+        purchaseRequest.setCallNumber(item.getCallNumber());
+
+        purchaseRequest.setExistingFolioItemId(item.getId());
         purchaseRequest.setExistingFolioItem(item);
 
         log.debug("Parsed item with title: " + title);
         return purchaseRequest;
     }
 
-    void updateItemInFolio(PurchaseRequest purchaseRequest, JSONObject item) {
+    /**
+     * Apply changes to the request's item and write it to FOLIO in a single PUT.  The item carries its 
+     * _version, so FOLIO rejects the write if the item changed since it was read.  On that conflict, 
+     * only the item is re-loaded, the changes applied to the fresh copy, and the write retried.
+     * 
+     * The full item is only rebuilt from the request's FolioItem here, to be changed and written.
+     * 
+     * @param changes Must be safe to apply to an item that already has them.  The conflict may come 
+     *   from this client's own earlier write, retried after its response was lost.
+     * @return True if the write succeeded.  The request's item is then the one written.
+     */
+    boolean updateItemInFolio(PurchaseRequest purchaseRequest, Consumer<JSONObject> changes) {
         String url = "/inventory/items/" + purchaseRequest.getExistingFolioItemId();
+        JSONObject item = purchaseRequest.getExistingFolioItem().toJSONObject();
+        changes.accept(item);
         try {
-            boolean success = folio.executePut(url, item);
-            if (success) {
-                log.info("Successfully updated FOLIO item.");
-            }
-            else {
-                log.warn("Failed to update FOLIO item.");
+            for (int attempt = 0; ; attempt++) {
+                int status = folio.executePutForStatus(ITEMS_UPDATE_ENDPOINT, url, item);
+                if (status == 204) {
+                    log.info("Successfully updated FOLIO item.");
+                    purchaseRequest.setExistingFolioItem(FolioItem.fromJson(item));
+                    return true;
+                }
+                if (status != 409 || attempt >= config.getFolio().getConflictRetries()) {
+                    log.warn("Failed to update FOLIO item.");
+                    return false;
+                }
+                log.info("FOLIO item changed since it was read; re-loading and retrying.");
+                item = folio.executeGet("items by id", url, null);
+                changes.accept(item);
             }
         }
         catch (Exception e) {
             log.error("Exception updating FOLIO for lost items: ", e);
+            return false;
         }
     }
 
-    void updateHoldingInFolio(JSONObject holding) {
-        String url = "/holdings-storage/holdings/" + holding.getString("id");
-        try {
-            boolean success = folio.executePut(url, holding);
-            if (success) {
-                log.info("Successfully updated FOLIO holding.");
-            }
-            else {
-                log.warn("Failed to update FOLIO holding.");
-            }
-        }
-        catch (Exception e) {
-            log.error("Exception updating FOLIO holding: ", e);
-        }
-    }
-
-    void updateInstanceInFolio(JSONObject instance) {
-        String url = "/inventory/instances/" + instance.getString("id");
-        try {
-            boolean success = folio.executePut(url, instance);
-            if (success) {
-                log.info("Successfully updated FOLIO instance.");
-            }
-            else {
-                log.warn("Failed to update FOLIO instance.");
-            }
-        }
-        catch (Exception e) {
-            log.error("Exception updating FOLIO instance: ", e);
-        }
+    /**
+     * Changes to items, holdings and instances are written to the storage modules in batches, 
+     * against freshly loaded storage records rather than the inventory views read elsewhere.
+     */
+    FolioBatchWriter newItemWriter() {
+        return folio.newBatchWriter("items", "/item-storage/items", "/item-storage/batch/synchronous", "items");
     }
 
-    JSONArray getItemsForHoldingId(String id) { 
-        log.debug("Loading items for holding id: " + id);
-        String url = "/inventory/items-by-holdings-id";
-        String queryString = "holdingsRecordId==" + id;
-        JSONArray items;
-        try {
-            JSONObject responseObject = folio.executeGet(url, queryString);
-            items = responseObject.getJSONArray("items");
-        }
-        catch (Exception e) {
-            log.error("Exception querying for lost items: ", e);
-            return null;
-        }
-        return items;
+    FolioBatchWriter newHoldingsWriter() {
+        return folio.newBatchWriter("holdings", "/holdings-storage/holdings", "/holdings-storage/batch/synchronous",
+            "holdingsRecords");
     }
 
-    JSONArray getHoldingsForInstanceId(String id) { 
-        log.debug("Loading holdings for instance id: " + id);
-        String url = "/holdings-storage/holdings";
-        String queryString = "instanceId==" + id;
-        JSONArray holdings;
-        try {
-            JSONObject responseObject = folio.executeGet(url, queryString);
-            holdings = responseObject.getJSONArray("holdingsRecords");
-        }
-        catch (Exception e) {
-            log.error("Exception querying for holdings: ", e);
-            return null;
-        }
-        return holdings;
+    FolioBatchWriter newInstanceWriter() {
+        return folio.newBatchWriter("instances", "/instance-storage/instances", "/instance-storage/batch/synchronous",
+            "instances");
     }
 
 }
@@ -0,0 +1,90 @@
+package edu.lehigh.libraries.purchase_request.lost_items_client.service;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+
+import org.json.JSONObject;
+import org.springframework.stereotype.Component;
+
+import edu.lehigh.libraries.purchase_request.connection.AsyncFolioConnection;
+import edu.lehigh.libraries.purchase_request.connection.FolioConnection;
+import edu.lehigh.libraries.purchase_request.lost_items_client.config.PropertiesConfig;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Counts how many times items have been checked out in FOLIO.
+ * 
+ * Each loan record is one checkout, and loans are indexed by itemId, so counts come from
+ * exact-match loan queries that ask only for the number of matches, never the loans themselves.
+ * A page of items is counted concurrently.  If that fails, falls back to searching the
+ * circulation log for each item.
+ */
+@Component
+@Slf4j
+class CirculationCountProvider {
+
+    private static final String LOANS_URL = "/loan-storage/loans";
+    private static final String LOANS_COUNT_ENDPOINT = "loans count";
+
+    private final FolioConnection folio;
+    private final AsyncFolioConnection asyncFolio;
+    private final TtlCache<String, Integer> counts;
+
+    CirculationCountProvider(FolioConnection folio, AsyncFolioConnection asyncFolio, PropertiesConfig config) {
+        this.folio = folio;
+        this.asyncFolio = asyncFolio;
+        this.counts = new TtlCache<String, Integer>(
+            config.getFolio().getCirculationCountCacheSize(),
+            Duration.ofMinutes(config.getFolio().getCirculationCountCacheTtlMinutes()));
+    }
+
+    /**
+     * Count checkouts, concurrently, for whichever of these items are not already cached.  Items whose
+     * count fails are left for getCount to retry.
+     */
+    void prefetch(Collection<String> itemIds) {
+        List<CompletableFuture<Void>> pending = itemIds.stream()
+            .filter(itemId -> counts.get(itemId) == null)
+            .map(itemId -> asyncFolio.executeCount(LOANS_COUNT_ENDPOINT, LOANS_URL, loansQuery(itemId))
+                .thenAccept(count -> counts.put(itemId, count))
+                .exceptionally(e -> {
+                    log.debug("Could not count loans for item " + itemId + " ahead of time: " + e);
+                    return null;
+                }))
+            .collect(Collectors.toList());
+        CompletableFuture.allOf(pending.toArray(new CompletableFuture[0])).join();
+    }
+
+    int getCount(String itemId) throws Exception {
+        Integer cached = counts.get(itemId);
+        if (cached != null) {
+            return cached.intValue();
+        }
+
+        int count;
+        try {
+            count = folio.executeGet(LOANS_COUNT_ENDPOINT, LOANS_URL, loansQuery(itemId), 0).getInt("totalRecords");
+        }
+        catch (Exception e) {
+            log.warn("Could not count loans for item " + itemId + "; using the circulation log.", e);
+            count = countFromCirculationLog(itemId);
+        }
+        counts.put(itemId, count);
+        return count;
+    }
+
+    private static String loansQuery(String itemId) {
+        return "itemId==\"" + itemId + "\"";
+    }
+
+    private int countFromCirculationLog(String itemId) throws Exception {
+        String url = "/audit-data/circulation/logs";
+        String queryString = "(items==\"*" + itemId + "*\" and action==\"Checked out\")";
+        JSONObject loansResult = folio.executeGet("audit log count", url, queryString, 0);
+        return loansResult.getInt("totalRecords");
+    }
+
+}
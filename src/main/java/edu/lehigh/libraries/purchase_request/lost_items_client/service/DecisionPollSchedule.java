@@ -0,0 +1,108 @@
+package edu.lehigh.libraries.purchase_request.lost_items_client.service;
+
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeParseException;
+import java.util.Set;
+
+import edu.lehigh.libraries.purchase_request.lost_items_client.config.PropertiesConfig;
+import edu.lehigh.libraries.purchase_request.lost_items_client.state.PropertiesFileStore;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * When each purchase request is next due a decision check.
+ *
+ * A request is checked on every run until it has gone undecided once.  After that, the wait
+ * before the next check is a share of the request's age, between a floor and a cap, so young
+ * requests are polled often and stale ones back off.  Requests the workflow server doesn't know
+ * about are not asked about again for a long while.
+ *
+ * Kept in a file in the state directory, so the schedule survives a restart.
+ */
+@Slf4j
+class DecisionPollSchedule {
+
+    private final Duration initialInterval;
+    private final Duration maxInterval;
+    private final Duration notFoundInterval;
+    private final int intervalPercentOfAge;
+    private final PropertiesFileStore nextChecks;
+
+    DecisionPollSchedule(PropertiesConfig config) {
+        PropertiesConfig.DecisionPolling polling = config.getDecisionPolling();
+        this.initialInterval = Duration.ofMinutes(polling.getInitialIntervalMinutes());
+        this.maxInterval = Duration.ofMinutes(polling.getMaxIntervalMinutes());
+        this.notFoundInterval = Duration.ofMinutes(polling.getNotFoundIntervalMinutes());
+        this.intervalPercentOfAge = polling.getIntervalPercentOfAge();
+        this.nextChecks = new PropertiesFileStore(Paths.get(config.getStateDirectory(), "decision-polls.properties"));
+    }
+
+    boolean isDue(String key, Instant now) {
+        String nextCheck = nextChecks.get(key);
+        return nextCheck == null || !Instant.parse(nextCheck).isAfter(now);
+    }
+
+    /**
+     * @param creationDate When the request was created, as the workflow server gives it, or null.
+     */
+    void recordUndecided(String key, String creationDate, Instant now) {
+        Instant created = parseDate(creationDate);
+        Duration interval = initialInterval;
+        if (created != null && created.isBefore(now)) {
+            Duration ageShare = Duration.between(created, now).multipliedBy(intervalPercentOfAge).dividedBy(100);
+            if (ageShare.compareTo(interval) > 0) {
+                interval = ageShare;
+            }
+        }
+        if (interval.compareTo(maxInterval) > 0) {
+            interval = maxInterval;
+        }
+        nextChecks.put(key, now.plus(interval).toString());
+    }
+
+    void recordNotFound(String key, Instant now) {
+        nextChecks.put(key, now.plus(notFoundInterval).toString());
+    }
+
+    void recordDecided(String key) {
+        nextChecks.remove(key);
+    }
+
+    /**
+     * Forget requests that have left the workflow other than by a decision this client wrote.
+     *
+     * @param keys Every request still in the workflow.
+     */
+    void retainOnly(Set<String> keys) {
+        nextChecks.snapshot().keySet().stream()
+            .filter(key -> !keys.contains(key))
+            .forEach(nextChecks::remove);
+    }
+
+    /**
+     * @return The date, taken as UTC if it has no offset, or null if it can't be read.
+     */
+    private static Instant parseDate(String date) {
+        if (date == null) {
+            return null;
+        }
+        try {
+            return OffsetDateTime.parse(date).toInstant();
+        }
+        catch (DateTimeParseException e) {
+            // Try without an offset below.
+        }
+        try {
+            return LocalDateTime.parse(date).toInstant(ZoneOffset.UTC);
+        }
+        catch (DateTimeParseException e) {
+            log.debug("Cannot read purchase request date " + date);
+            return null;
+        }
+    }
+
+}
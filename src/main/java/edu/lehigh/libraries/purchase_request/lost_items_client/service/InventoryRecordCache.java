@@ -0,0 +1,32 @@
+package edu.lehigh.libraries.purchase_request.lost_items_client.service;
+
+import java.time.Duration;
+
+import org.json.JSONObject;
+import org.springframework.stereotype.Component;
+
+import edu.lehigh.libraries.purchase_request.lost_items_client.config.PropertiesConfig;
+import lombok.Getter;
+
+/**
+ * Holdings and instance records shared by the monitors, so that sibling items and repeated
+ * steps in one item's lifecycle don't load the same record again.
+ * 
+ * Records from the cache are for reading only.  Load a fresh copy before changing and 
+ * writing a record, and invalidate it once written.
+ */
+@Component
+@Getter
+class InventoryRecordCache {
+
+    private final TtlCache<String, JSONObject> holdings;
+    private final TtlCache<String, JSONObject> instances;
+
+    InventoryRecordCache(PropertiesConfig config) {
+        PropertiesConfig.Folio.RecordCache cacheConfig = config.getFolio().getRecordCache();
+        Duration ttl = Duration.ofSeconds(cacheConfig.getTtlSeconds());
+        this.holdings = new TtlCache<String, JSONObject>(cacheConfig.getMaxSize(), ttl);
+        this.instances = new TtlCache<String, JSONObject>(cacheConfig.getMaxSize(), ttl);
+    }
+
+}
@@ -1,8 +1,21 @@
 package edu.lehigh.libraries.purchase_request.lost_items_client.service;
 
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -10,10 +23,15 @@ import javax.annotation.PostConstruct;
 
 import org.json.JSONArray;
 import org.json.JSONObject;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
+import edu.lehigh.libraries.purchase_request.connection.FolioBatchWriter;
 import edu.lehigh.libraries.purchase_request.lost_items_client.config.PropertiesConfig;
+import edu.lehigh.libraries.purchase_request.lost_items_client.state.WatermarkStore;
+import edu.lehigh.libraries.purchase_request.lost_items_client.state.WorkflowItemIndex;
+import edu.lehigh.libraries.purchase_request.model.FolioItem;
 import edu.lehigh.libraries.purchase_request.model.PurchaseRequest;
 import lombok.extern.slf4j.Slf4j;
 
@@ -28,7 +46,23 @@ public class MonitorNewLostItemsService extends AbstractLostItemsService {
     private final String DAMAGED_BEYOND_REPAIR_STATISTICAL_CODE;
     private final String FOLIO_INSTANCE_STATUS_WITHDRAWN;
     
-    private Map<String, String> retentionAgreementCodes;
+    Map<String, String> retentionAgreementCodes;
+
+    @Autowired
+    CirculationCountProvider circulationCounts;
+
+    @Autowired
+    private WatermarkStore watermarks;
+
+    @Autowired
+    private WorkflowItemIndex workflowItems;
+
+    private static final String WATERMARK_LAST_RUN = "new-lost-items.last-run";
+    private static final String WATERMARK_LAST_FULL_SCAN = "new-lost-items.last-full-scan";
+
+    // Matches the precision of FOLIO's metadata dates, which compare as strings.
+    private static final DateTimeFormatter UPDATED_DATE_FORMAT = 
+        DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSS").withZone(ZoneOffset.UTC);
 
     public MonitorNewLostItemsService(PropertiesConfig config) throws Exception {
         super(config);
@@ -52,7 +86,7 @@ public class MonitorNewLostItemsService extends AbstractLostItemsService {
         String queryString = "statisticalCodeTypeId=" + RETENTION_AGREEMENT_STATISTICAL_CODE_TYPE;
         JSONObject response;
         try {
-            response = folio.executeGet(url, queryString);
+            response = folio.executeGet("statistical codes search", url, queryString);
         }
         catch (Exception e) {
             log.error("Could not get statistical codes", e);
@@ -66,57 +100,270 @@ public class MonitorNewLostItemsService extends AbstractLostItemsService {
         }
     }
     
+    /**
+     * Runs as a pipeline of stages joined by bounded queues: fetch items from FOLIO, enrich them,
+     * submit them to the workflow server, and mark them in FOLIO.  Submission starts as soon as
+     * the first item is enriched, but no more requests than there are mark workers may be submitted
+     * and not yet marked, so a failed mark halts submissions with little left unmarked.  If FOLIO or
+     * the workflow server starts failing fast, no new items are taken on, but those already submitted
+     * are still marked.  With sharding, only the items in
+     * this node's shards are fetched, and each is submitted only if this node still holds its shard.
+     */
     @Scheduled(cron = "${lost-items-client.schedule.new-lost-items}")
     public void triggerMonitor() {
         log.debug("Schedule triggered: checking for lost items.");
-        List<PurchaseRequest> purchaseRequests = loadNewLostItems();
+        Set<Shard> runShards = shards.startRun();
+        try {
+            if (runShards.isEmpty()) {
+                log.debug("This node holds no shards; not checking for lost items.");
+                return;
+            }
+            monitor(runShards);
+        }
+        finally {
+            shards.finishRun();
+        }
+    }
 
-        if (purchaseRequests.size() > 0) {
-            log.info("Sending " + purchaseRequests.size() + " new purchase requests.");
-            for (PurchaseRequest purchaseRequest: purchaseRequests) {
-                log.info("Requesting replacement purchase: " + purchaseRequest);
-                PurchaseRequest savedRequest;
+    private void monitor(Set<Shard> runShards) {
+        PropertiesConfig.Pipeline pipelineConfig = config.getPipeline();
+        int capacity = pipelineConfig.getQueueCapacity();
+        AtomicBoolean halted = new AtomicBoolean(false);
+        MonitorRunMetrics.Run run = runMetrics.start("new-lost-items");
+        Set<String> withdrawnFromHoldings = ConcurrentHashMap.newKeySet();
+        Instant runStart = Instant.now();
+        Instant updatedSince = findIncrementalStart(runStart, runShards);
+        boolean complete = false;
+
+        // A submission waits for a permit, held until its item is marked, so that no more requests than
+        // there are mark workers can be submitted but not yet marked when a mark fails and halts the run.
+        Semaphore unmarked = new Semaphore(Integer.max(pipelineConfig.getMarkWorkers(), 1));
+        PipelineStage<PurchaseRequest> markStage = new PipelineStage<PurchaseRequest>("lost-items-mark",
+            pipelineConfig.getMarkWorkers(), capacity, savedRequest -> {
                 try {
-                    savedRequest = workflow.submitRequest(purchaseRequest);
+                    markAndWithdraw(savedRequest, halted, withdrawnFromHoldings, run);
                 }
-                catch (Exception e) {
-                    log.error("Exception requesting replacement purchase: ", e);
-                    continue;
+                finally {
+                    unmarked.release();
                 }
+            }).start();
+        PipelineStage<PurchaseRequest> submitStage = new PipelineStage<PurchaseRequest>("lost-items-submit",
+            pipelineConfig.getSubmitWorkers(), capacity, purchaseRequest -> {
+                unmarked.acquire();
+                boolean handedOff = false;
+                try {
+                    // Nothing may be submitted that can't then be marked.
+                    if (markStage.hasFailed()) {
+                        halted.set(true);
+                    }
+                    PurchaseRequest savedRequest = submit(purchaseRequest, halted, run);
+                    if (savedRequest != null) {
+                        run.count(MonitorRunMetrics.SUBMITTED);
+                        markStage.submit(savedRequest);
+                        handedOff = true;
+                    }
+                }
+                finally {
+                    if (!handedOff) {
+                        unmarked.release();
+                    }
+                }
+            }).start();
+        PipelineStage<FolioItem> enrichStage = new PipelineStage<FolioItem>("lost-items-enrich",
+            pipelineConfig.getEnrichWorkers(), capacity, item -> {
+                if (halted.get()) {
+                    return;
+                }
+                PurchaseRequest purchaseRequest = parseItemAsPurchaseRequest(item);
+                if (purchaseRequest != null) {
+                    submitStage.submit(purchaseRequest);
+                }
+                else {
+                    run.count(MonitorRunMetrics.FAILED);
+                }
+            }).start();
 
-                if (savedRequest != null) {
-                    log.debug("Successfully submitted purchase request.");
-
-                    // Do not catch exceptions here.  If there may be a problem on the FOLIO side,
-                    // I do not want to continue creating PRs above until it is resolved.
-                    markItemSubmittedToWorkflow(savedRequest);
-                    PurchaseRequest updatedRequest = loadItem(savedRequest.getExistingFolioItemId());
-                    JSONObject item = updatedRequest.getExistingFolioItem();
-                    withdrawItem(item, updatedRequest);
-                    maybeShadowHoldingAndInstance(item);
+        try {
+            try (Stream<FolioItem> items = loadNewLostItems(updatedSince, runShards)) {
+                Iterator<FolioItem> it = items.iterator();
+                int fetched = 0;
+                while (!halted.get() && it.hasNext()) {
+                    if (isDependencyUnavailable() || isShardLost(runShards) 
+                        || PipelineStage.anyFailed(enrichStage, submitStage, markStage)) {
+                        halted.set(true);
+                        break;
+                    }
+                    enrichStage.submit(it.next());
+                    run.count(MonitorRunMetrics.FOUND);
+                    fetched++;
                 }
+                // Only a scan that saw every matching item may move the watermark.
+                complete = !halted.get() && (QUERY_LIMIT == null || fetched < QUERY_LIMIT.intValue());
+            }
+            catch (RuntimeException e) {
+                log.error("Exception querying for lost items: ", e);
+            }
+            enrichStage.finish();
+            submitStage.finish();
+            markStage.finish();
+            if (PipelineStage.anyFailed(enrichStage, submitStage, markStage)) {
+                halted.set(true);
+            }
+            shadowHoldingsAndInstances(withdrawnFromHoldings);
+        }
+        catch (InterruptedException e) {
+            log.warn("Interrupted while checking for lost items.");
+            Thread.currentThread().interrupt();
+        }
+
+        if (run.get(MonitorRunMetrics.SUBMITTED) > 0) {
+            log.info("Sent " + run.get(MonitorRunMetrics.SUBMITTED) + " new purchase requests.");
+        }
+        // Leave the watermark behind any item that failed, so the next run tries it again.
+        if (run.get(MonitorRunMetrics.FAILED) > 0) {
+            complete = false;
+        }
+        run.finish(halted.get() ? "halted" : complete ? "complete" : "partial",
+            MonitorRunMetrics.FOUND, MonitorRunMetrics.SUBMITTED, MonitorRunMetrics.FAILED);
+        if (complete && !halted.get()) {
+            recordWatermarks(runStart, updatedSince == null, runShards);
+        }
+    }
+
+    /**
+     * @return When incremental polling applies, the earliest updated date to ask FOLIO for.  
+     *   Null for a full scan.  With several shards, the run reaches back as far as the shard
+     *   that is furthest behind, and does a full scan if any of them is due one.
+     */
+    private Instant findIncrementalStart(Instant runStart, Set<Shard> runShards) {
+        PropertiesConfig.Incremental incremental = config.getIncremental();
+        if (!incremental.isEnabled()) {
+            return null;
+        }
+        Instant earliestRun = null;
+        for (Shard shard : runShards) {
+            Instant lastRun = watermarks.get(WATERMARK_LAST_RUN + watermarkSuffix(shard));
+            Instant lastFullScan = watermarks.get(WATERMARK_LAST_FULL_SCAN + watermarkSuffix(shard));
+            if (lastRun == null || lastFullScan == null 
+                || lastFullScan.isBefore(runStart.minus(Duration.ofHours(incremental.getFullScanIntervalHours())))) {
+                log.debug("Running a full scan for lost items.");
+                return null;
+            }
+            if (earliestRun == null || lastRun.isBefore(earliestRun)) {
+                earliestRun = lastRun;
+            }
+        }
+        Instant since = earliestRun.minus(Duration.ofMinutes(incremental.getOverlapMinutes()));
+        log.debug("Checking for lost items updated since " + since);
+        return since;
+    }
+
+    private void recordWatermarks(Instant runStart, boolean fullScan, Set<Shard> runShards) {
+        if (!config.getIncremental().isEnabled()) {
+            return;
+        }
+        for (Shard shard : runShards) {
+            watermarks.set(WATERMARK_LAST_RUN + watermarkSuffix(shard), runStart);
+            if (fullScan) {
+                watermarks.set(WATERMARK_LAST_FULL_SCAN + watermarkSuffix(shard), runStart);
+            }
+        }
+    }
+
+    /**
+     * @return Nothing without sharding, so that existing watermarks still apply, or else the shard's name.
+     */
+    private String watermarkSuffix(Shard shard) {
+        return shard.getCount() == 1 ? "" : "." + shard.getLeaseName();
+    }
+
+    private PurchaseRequest submit(PurchaseRequest purchaseRequest, AtomicBoolean halted, 
+        MonitorRunMetrics.Run run) {
+
+        if (halted.get()) {
+            log.debug("Not submitting after an earlier FOLIO failure: " + purchaseRequest);
+            return null;
+        }
+        // Another node may have taken over the item's shard since this run began.
+        if (!shards.owns(purchaseRequest.getExistingFolioItemId())) {
+            log.warn("Not submitting an item in a shard this node no longer holds: " + purchaseRequest);
+            halted.set(true);
+            return null;
+        }
+        log.info("Requesting replacement purchase: " + purchaseRequest);
+        try {
+            PurchaseRequest savedRequest = workflow.submitRequest(purchaseRequest);
+            if (savedRequest != null) {
+                log.debug("Successfully submitted purchase request.");
+            }
+            return savedRequest;
+        }
+        catch (Exception e) {
+            log.error("Exception requesting replacement purchase: ", e);
+            run.count(MonitorRunMetrics.FAILED);
+            return null;
+        }
+    }
+
+    private void markAndWithdraw(PurchaseRequest savedRequest, AtomicBoolean halted, 
+        Set<String> withdrawnFromHoldings, MonitorRunMetrics.Run run) {
+
+        // If there may be a problem on the FOLIO side, I do not want to continue 
+        // creating PRs until it is resolved.
+        try {
+            // The new holder of a lost shard may be writing the same item.
+            if (!shards.owns(savedRequest.getExistingFolioItemId())) {
+                throw new IllegalStateException("Lost the shard of item " + savedRequest.getExistingFolioItemId()
+                    + " after submitting it to workflow as " + savedRequest.getKey() + "; not marking it");
+            }
+            // One write carries both the workflow marks and the withdrawal.
+            log.debug("Calling FOLIO to mark item as submitted to workflow and withdraw it.");
+            boolean success = updateItemInFolio(savedRequest, item -> {
+                markItemSubmittedToWorkflow(item, savedRequest.getKey());
+                withdrawItem(item);
+            });
+            if (!success) {
+                throw new IllegalStateException("Could not mark item " + savedRequest.getExistingFolioItemId()
+                    + " as submitted to workflow");
+            }
+            FolioItem item = savedRequest.getExistingFolioItem();
+            if (config.getWorkflowIndex().isEnabled()) {
+                workflowItems.put(savedRequest.getKey(), new WorkflowItemIndex.Entry(savedRequest.getExistingFolioItemId()));
+            }
+            if (item.getHoldingsRecordId() != null) {
+                withdrawnFromHoldings.add(item.getHoldingsRecordId());
             }
         }
+        catch (RuntimeException e) {
+            log.error("Stopping new submissions after FOLIO failure: ", e);
+            run.count(MonitorRunMetrics.FAILED);
+            halted.set(true);
+        }
     }
 
-    private PurchaseRequest loadItem(String id) {
-        String queryString = "id=\"" + id + "\"";
-        List<PurchaseRequest> purchaseRequests = loadFolioItemsAsPurchaseRequests(queryString, QUERY_LIMIT);
-        return purchaseRequests.get(0);
+    private Stream<FolioItem> loadNewLostItems(Instant updatedSince, Set<Shard> runShards) {
+        return streamFolioItems(buildNewLostItemsQuery(updatedSince, runShards), "hrid", QUERY_LIMIT);
     }
 
-    private List<PurchaseRequest> loadNewLostItems() {
-        String queryString = "("
+    String buildNewLostItemsQuery(Instant updatedSince, Set<Shard> runShards) {
+        return "("
             + buildLostOrDamagedPhrase()
             + buildPatronRequestingPhrase()
             + " not " + buildWorkflowPhrase()
             + ")"
-            + " not discoverySuppress=true" 
-            + " sortby hrid";
-        return loadFolioItemsAsPurchaseRequests(queryString, QUERY_LIMIT);
+            + buildShardPhrase(runShards)
+            + buildUpdatedSincePhrase(updatedSince)
+            + " not discoverySuppress=true";
+    }
+
+    private String buildUpdatedSincePhrase(Instant updatedSince) {
+        if (updatedSince == null) {
+            return "";
+        }
+        return " and (metadata.updatedDate>=\"" + UPDATED_DATE_FORMAT.format(updatedSince) + "\")";
     }
 
-    private String buildLostOrDamagedPhrase() {
+    String buildLostOrDamagedPhrase() {
         return "("
          + buildLostPhrase()
          + buildDamagedPhrase()
@@ -137,7 +384,7 @@ public class MonitorNewLostItemsService extends AbstractLostItemsService {
         return "";
     }
 
-    private String buildPatronRequestingPhrase() {
+    String buildPatronRequestingPhrase() {
         if (FOLIO_PATRON_REQUESTING_ONLY) {
             return " and (notes=\"" + FOLIO_ITEM_NOTE_WORKFLOW_PATRON_REQUESTING + "\")";
         }
@@ -147,25 +394,43 @@ public class MonitorNewLostItemsService extends AbstractLostItemsService {
     }
 
     @Override
-    void parseItemAdditionalFields(PurchaseRequest purchaseRequest, JSONObject item) {
+    void prefetchAdditionalFields(List<FolioItem> items) {
+        Set<String> itemIds = new HashSet<String>();
+        Set<String> holdingsRecordIds = new HashSet<String>();
+        for (FolioItem item : items) {
+            itemIds.add(item.getId());
+            String holdingsRecordId = item.getHoldingsRecordId();
+            if (holdingsRecordId != null) {
+                holdingsRecordIds.add(holdingsRecordId);
+            }
+        }
+        circulationCounts.prefetch(itemIds);
+
+        Map<String, JSONObject> holdings = prefetchHoldingRecords(holdingsRecordIds);
+
+        Set<String> instanceIds = new HashSet<String>();
+        for (JSONObject holding : holdings.values()) {
+            instanceIds.add(holding.getString("instanceId"));
+        }
+        prefetchInstances(instanceIds);
+    }
+
+    @Override
+    void parseItemAdditionalFields(PurchaseRequest purchaseRequest, FolioItem item) {
         parseCirculationCounts(purchaseRequest, item);
         parseRetentionAgreements(purchaseRequest, item);
         parseDamagedBeyondRepair(purchaseRequest, item);
         parseInstanceRecord(purchaseRequest, item);
     }
 
-    private void parseCirculationCounts(PurchaseRequest purchaseRequest, JSONObject item) {
+    private void parseCirculationCounts(PurchaseRequest purchaseRequest, FolioItem item) {
         parseFolioCirculationCount(purchaseRequest, item);
         parseLegacyCirculationCount(purchaseRequest, item);
     }
 
-    private void parseFolioCirculationCount(PurchaseRequest purchaseRequest, JSONObject item) {
+    private void parseFolioCirculationCount(PurchaseRequest purchaseRequest, FolioItem item) {
         try {
-            String itemId = item.getString("id");
-            String url = "/audit-data/circulation/logs";
-            String queryString = "(items==\"*" + itemId + "*\" and action==\"Checked out\")";
-            JSONObject loansResult = folio.executeGet(url, queryString, 0);
-            int count = loansResult.getInt("totalRecords");
+            int count = circulationCounts.getCount(item.getId());
             purchaseRequest.setRequesterComments(purchaseRequest.getRequesterComments() + 
                 " \n FOLIO Circulation Count: " + count + ".");
         }
@@ -174,29 +439,22 @@ public class MonitorNewLostItemsService extends AbstractLostItemsService {
         }
     }
 
-    private void parseLegacyCirculationCount(PurchaseRequest purchaseRequest, JSONObject item) {
+    private void parseLegacyCirculationCount(PurchaseRequest purchaseRequest, FolioItem item) {
         if (FOLIO_ITEM_NOTE_LEGACY_CIRCULATION_COUNT == null) {
             return;
         }
-        JSONArray notes = item.getJSONArray("notes");
-        for (Object noteObject: notes) {
-            JSONObject note = (JSONObject)noteObject;
-            String typeId = note.getString("itemNoteTypeId");
-            if (FOLIO_ITEM_NOTE_LEGACY_CIRCULATION_COUNT.equals(typeId)) {
-                String count = note.getString("note");
-                purchaseRequest.setRequesterComments(purchaseRequest.getRequesterComments() + 
-                " \n Legacy Circulation Count: " + count + ".");
-                return;
-            }
+        String count = item.findNote(FOLIO_ITEM_NOTE_LEGACY_CIRCULATION_COUNT);
+        if (count != null) {
+            purchaseRequest.setRequesterComments(purchaseRequest.getRequesterComments() + 
+            " \n Legacy Circulation Count: " + count + ".");
+            return;
         }
         purchaseRequest.setRequesterComments(purchaseRequest.getRequesterComments() + 
         " \n No Legacy Circulation Count found.");
     }
 
-    private void parseRetentionAgreements(PurchaseRequest purchaseRequest, JSONObject item) {
-        JSONArray statisticalCodes = item.getJSONArray("statisticalCodeIds");
-        for (Object statisticalCodeObject : statisticalCodes) {
-            String statisticalCode = (String)statisticalCodeObject;
+    private void parseRetentionAgreements(PurchaseRequest purchaseRequest, FolioItem item) {
+        for (String statisticalCode : item.getStatisticalCodeIds()) {
             if (retentionAgreementCodes.containsKey(statisticalCode)) {
                 String name = retentionAgreementCodes.get(statisticalCode);
                 purchaseRequest.setRequesterComments(purchaseRequest.getRequesterComments() + 
@@ -205,30 +463,24 @@ public class MonitorNewLostItemsService extends AbstractLostItemsService {
         }
     }
 
-    private void parseDamagedBeyondRepair(PurchaseRequest purchaseRequest, JSONObject item) {
+    private void parseDamagedBeyondRepair(PurchaseRequest purchaseRequest, FolioItem item) {
         if (DAMAGED_BEYOND_REPAIR_STATISTICAL_CODE == null) {
             return;
         }
 
-        JSONArray statisticalCodes = item.getJSONArray("statisticalCodeIds");
-        for (Object statisticalCodeObject : statisticalCodes) {
-            String statisticalCode = (String)statisticalCodeObject;
-            if (DAMAGED_BEYOND_REPAIR_STATISTICAL_CODE.equals(statisticalCode)) {
-                purchaseRequest.setRequesterComments(purchaseRequest.getRequesterComments() + 
-                    " \n Note: Damaged beyond repair");
-            }
+        if (item.hasStatisticalCode(DAMAGED_BEYOND_REPAIR_STATISTICAL_CODE)) {
+            purchaseRequest.setRequesterComments(purchaseRequest.getRequesterComments() + 
+                " \n Note: Damaged beyond repair");
         }
     }
 
-    private void parseInstanceRecord(PurchaseRequest purchaseRequest, JSONObject item) {
+    private void parseInstanceRecord(PurchaseRequest purchaseRequest, FolioItem item) {
         // index title from instance record
         try {
-            String holdingsRecordId = item.getString("holdingsRecordId");
-            String url = "/holdings-storage/holdings/" + holdingsRecordId;
-            JSONObject holdingsRecord = folio.executeGet(url, null);
+            String holdingsRecordId = Objects.requireNonNull(item.getHoldingsRecordId(), "Item has no holdings record");
+            JSONObject holdingsRecord = getHoldingRecord(holdingsRecordId);
             String instanceRecordId= holdingsRecord.getString("instanceId");
-            url = "/inventory/instances/" + instanceRecordId;
-            JSONObject instanceRecord = folio.executeGet(url, null);
+            JSONObject instanceRecord = getInstance(instanceRecordId);
             purchaseRequest.setRequesterComments(purchaseRequest.getRequesterComments() + 
                 " \n Instance HRID: " + instanceRecord.getString("hrid"));
             if (instanceRecord.has("indexTitle")) {
@@ -242,31 +494,46 @@ public class MonitorNewLostItemsService extends AbstractLostItemsService {
         }
     }
 
-    private void markItemSubmittedToWorkflow(PurchaseRequest purchaseRequest) {
+    /**
+     * Safe to apply to an item that already has the marks, as when a write that got through is 
+     * retried and the item re-loaded after the conflict.
+     */
+    private void markItemSubmittedToWorkflow(JSONObject item, String key) {
         // Mark the item submitted
-        JSONObject item = purchaseRequest.getExistingFolioItem();
         JSONArray statisticalCodeIds = item.getJSONArray("statisticalCodeIds");
-        statisticalCodeIds.put(FOLIO_CODE_IN_WORKFLOW);
+        if (!statisticalCodeIds.toList().contains(FOLIO_CODE_IN_WORKFLOW)) {
+            statisticalCodeIds.put(FOLIO_CODE_IN_WORKFLOW);
+        }
 
         // Record the PR key
-        String key = purchaseRequest.getKey();
-        JSONArray notes = item.getJSONArray("notes");
         JSONObject note = new JSONObject();
         note.put("itemNoteTypeId", FOLIO_ITEM_NOTE_WORKFLOW_TAG);
         note.put("note", key);
         note.put("staffOnly", true);
-        notes.put(note);
+        addNoteOnce(item.getJSONArray("notes"), note, "itemNoteTypeId");
+    }
 
-        // Update it in FOLIO
-        log.debug("Calling FOLIO to mark item as submitted to workflow.");
-        updateItemInFolio(purchaseRequest, item);
+    /**
+     * Add the note unless one with the same text and type is already there.
+     */
+    private static void addNoteOnce(JSONArray notes, JSONObject note, String typeProperty) {
+        for (int i = 0; i < notes.length(); i++) {
+            JSONObject existing = notes.getJSONObject(i);
+            if (note.getString(typeProperty).equals(existing.optString(typeProperty)) 
+                && note.getString("note").equals(existing.optString("note"))) {
+                return;
+            }
+        }
+        notes.put(note);
     }
 
-    private void withdrawItem(JSONObject item, PurchaseRequest purchaseRequest) {
+    /**
+     * Like markItemSubmittedToWorkflow, safe to apply to an item that is already withdrawn.
+     */
+    private void withdrawItem(JSONObject item) {
         setItemStatus(item, "Withdrawn");
         setSuppressDiscovery(item, true);
         addCirculationNote(item);
-        updateItemInFolio(purchaseRequest, item);
     }
 
     private void setItemStatus(JSONObject item, String statusName) {
@@ -279,59 +546,107 @@ public class MonitorNewLostItemsService extends AbstractLostItemsService {
     }
 
     private void addCirculationNote(JSONObject item) {
-        JSONArray circulationNotes = item.getJSONArray("circulationNotes");
         JSONObject note = new JSONObject();
         note.put("note", "Route to cataloging. Item was withdrawn.");
         note.put("noteType", "Check in");
         note.put("staffOnly", true);
-        circulationNotes.put(note);
-    }
-
-    private void maybeShadowHoldingAndInstance(JSONObject item) {
-        // Shadow the holdings record if appropriate
-        String holdingRecordId = item.getString("holdingsRecordId");
-        if (!hasUnsuppressedItems(holdingRecordId)) {
-            log.debug("Shadow the holdings record.");
-            JSONObject holdingRecord = getHoldingRecord(holdingRecordId);
-            setSuppressDiscovery(holdingRecord, true);
-            updateHoldingInFolio(holdingRecord);
-
-            // Shadow the instance record if appropriate
-            String instanceId = holdingRecord.getString("instanceId");
-            if (!hasUnsuppressedHoldings(instanceId)) {
-                log.debug("Shadow the instance record.");
-                JSONObject instance = getInstance(instanceId);
-                setSuppressDiscovery(instance, true);
-                if (FOLIO_INSTANCE_STATUS_WITHDRAWN != null) {
-                    setInstanceStatusWithdrawn(instance);
-                }
-                updateInstanceInFolio(instance);
+        addNoteOnce(item.getJSONArray("circulationNotes"), note, "noteType");
+    }
+
+    /**
+     * Once all of a run's items are withdrawn, shadow each affected holdings record that has no
+     * unsuppressed items left, then each of their instances that has no unsuppressed holdings left.
+     * Each distinct record is checked once however many of its items were withdrawn, the writes
+     * go to FOLIO in batches, and only records that actually change are written.  The checks at
+     * each level are all sent at once, and kept in flight together by the asynchronous client.
+     */
+    private void shadowHoldingsAndInstances(Set<String> holdingsRecordIds) {
+        log.debug("Checking " + holdingsRecordIds.size() + " holdings records for shadowing.");
+        Map<String, CompletableFuture<Boolean>> itemChecks = new LinkedHashMap<String, CompletableFuture<Boolean>>();
+        holdingsRecordIds.forEach(id -> itemChecks.put(id, hasUnsuppressedItems(id)));
+
+        Set<String> instanceIds = new HashSet<String>();
+        FolioBatchWriter holdingsWriter = newHoldingsWriter();
+        for (String holdingsRecordId : holdingsRecordIds) {
+            if (itemChecks.get(holdingsRecordId).join()) {
+                continue;
+            }
+            JSONObject holdingRecord = getHoldingRecord(holdingsRecordId);
+            if (holdingRecord == null) {
+                continue;
             }
+            instanceIds.add(holdingRecord.getString("instanceId"));
+            holdingsWriter.update(holdingsRecordId, this::shadowHoldingRecord, 
+                written -> recordCache.getHoldings().invalidate(holdingsRecordId));
         }
+        holdingsWriter.flush();
+
+        Map<String, CompletableFuture<Boolean>> holdingsChecks = new LinkedHashMap<String, CompletableFuture<Boolean>>();
+        instanceIds.forEach(id -> holdingsChecks.put(id, hasUnsuppressedHoldings(id)));
+
+        FolioBatchWriter instanceWriter = newInstanceWriter();
+        for (String instanceId : instanceIds) {
+            if (holdingsChecks.get(instanceId).join()) {
+                continue;
+            }
+            instanceWriter.update(instanceId, this::shadowInstance, 
+                written -> recordCache.getInstances().invalidate(instanceId));
+        }
+        instanceWriter.flush();
+    }
+
+    private boolean shadowHoldingRecord(JSONObject holdingRecord) {
+        if (holdingRecord.optBoolean("discoverySuppress")) {
+            return false;
+        }
+        log.debug("Shadow the holdings record.");
+        setSuppressDiscovery(holdingRecord, true);
+        return true;
     }
 
-    private boolean hasUnsuppressedItems(String holdingsRecordId) {
+    private boolean shadowInstance(JSONObject instance) {
+        boolean changed = false;
+        if (!instance.optBoolean("discoverySuppress")) {
+            setSuppressDiscovery(instance, true);
+            changed = true;
+        }
+        if (FOLIO_INSTANCE_STATUS_WITHDRAWN != null 
+            && !FOLIO_INSTANCE_STATUS_WITHDRAWN.equals(instance.optString("statusId", null))) {
+            setInstanceStatusWithdrawn(instance);
+            changed = true;
+        }
+        if (changed) {
+            log.debug("Shadow the instance record.");
+        }
+        return changed;
+    }
+
+    /**
+     * Counts matching items in FOLIO rather than loading them.  If the check fails, assumes there are
+     * unsuppressed items, so that nothing is shadowed in error.
+     */
+    private CompletableFuture<Boolean> hasUnsuppressedItems(String holdingsRecordId) {
         log.debug("Checking for unsuppressed items on holdings: " + holdingsRecordId);
-        JSONArray itemRecords = getItemsForHoldingId(holdingsRecordId);
-        for (Object itemObject: itemRecords) {
-            JSONObject item = (JSONObject)itemObject;
-            if (!item.optBoolean("discoverySuppress")) {
+        String queryString = "holdingsRecordId==\"" + holdingsRecordId + "\" not discoverySuppress==true";
+        return asyncFolio.executeExists("items count", "/item-storage/items", queryString)
+            .exceptionally(e -> {
+                log.error("Exception checking for unsuppressed items: ", e);
                 return true;
-            }
-        }
-        return false;
+            });
     }
 
-    private boolean hasUnsuppressedHoldings(String instanceId) {
+    /**
+     * Counts matching holdings in FOLIO rather than loading them.  If the check fails, assumes there are
+     * unsuppressed holdings, so that nothing is shadowed in error.
+     */
+    private CompletableFuture<Boolean> hasUnsuppressedHoldings(String instanceId) {
         log.debug("Checking for unsuppressed holdings on instance: " + instanceId);
-        JSONArray holdingRecords = getHoldingsForInstanceId(instanceId);
-        for (Object holdingObject: holdingRecords) {
-            JSONObject holding = (JSONObject)holdingObject;
-            if (!holding.has("discoverySuppress") || !holding.getBoolean("discoverySuppress")) {
+        String queryString = "instanceId==\"" + instanceId + "\" not discoverySuppress==true";
+        return asyncFolio.executeExists("holdings count", "/holdings-storage/holdings", queryString)
+            .exceptionally(e -> {
+                log.error("Exception checking for unsuppressed holdings: ", e);
                 return true;
-            }
-        }
-        return false;
+            });
     }
 
     private void setInstanceStatusWithdrawn(JSONObject instance) {
@@ -0,0 +1,92 @@
+package edu.lehigh.libraries.purchase_request.lost_items_client.service;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Times each scheduled monitor run and counts what it did with the items it found.  The counts
+ * from the most recent run of each monitor are kept as gauges, and running totals as counters.
+ */
+@Component
+class MonitorRunMetrics {
+
+    static final String FOUND = "found";
+    static final String SUBMITTED = "submitted";
+    static final String DECIDED = "decided";
+    static final String FAILED = "failed";
+
+    private final MeterRegistry registry;
+    private final Map<String, AtomicInteger> lastRunCounts = new ConcurrentHashMap<String, AtomicInteger>();
+
+    MonitorRunMetrics(MeterRegistry registry) {
+        this.registry = registry;
+    }
+
+    Run start(String monitor) {
+        return new Run(monitor);
+    }
+
+    class Run {
+
+        private final String monitor;
+        private final Timer.Sample sample;
+        private final Map<String, AtomicInteger> counts = new ConcurrentHashMap<String, AtomicInteger>();
+
+        private Run(String monitor) {
+            this.monitor = monitor;
+            this.sample = Timer.start(registry);
+        }
+
+        void count(String result) {
+            counts.computeIfAbsent(result, key -> new AtomicInteger()).incrementAndGet();
+        }
+
+        int get(String result) {
+            AtomicInteger count = counts.get(result);
+            return count == null ? 0 : count.get();
+        }
+
+        /**
+         * @param outcome How the run ended, e.g. complete, partial or halted.
+         */
+        void finish(String outcome, String... results) {
+            sample.stop(Timer.builder("lost_items.monitor.runs")
+                .description("Duration of scheduled monitor runs")
+                .tag("monitor", monitor)
+                .tag("outcome", outcome)
+                .register(registry));
+            for (String result : results) {
+                int count = get(result);
+                lastRunGauge(result).set(count);
+                Counter.builder("lost_items.monitor.items")
+                    .description("Items handled by monitor runs, by result")
+                    .tag("monitor", monitor)
+                    .tag("result", result)
+                    .register(registry)
+                    .increment(count);
+            }
+        }
+
+        private AtomicInteger lastRunGauge(String result) {
+            return lastRunCounts.computeIfAbsent(monitor + "/" + result, key -> {
+                AtomicInteger value = new AtomicInteger();
+                Gauge.builder("lost_items.monitor.last_run.items", value, AtomicInteger::get)
+                    .description("Items handled by the most recent monitor run, by result")
+                    .tag("monitor", monitor)
+                    .tag("result", result)
+                    .register(registry);
+                return value;
+            });
+        }
+
+    }
+
+}
@@ -1,14 +1,27 @@
 package edu.lehigh.libraries.purchase_request.lost_items_client.service;
 
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
-import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
 
 import org.json.JSONArray;
 import org.json.JSONObject;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
+import edu.lehigh.libraries.purchase_request.connection.FolioBatchWriter;
 import edu.lehigh.libraries.purchase_request.lost_items_client.config.PropertiesConfig;
+import edu.lehigh.libraries.purchase_request.lost_items_client.state.WatermarkStore;
+import edu.lehigh.libraries.purchase_request.lost_items_client.state.WorkflowItemIndex;
 import edu.lehigh.libraries.purchase_request.model.PurchaseRequest;
 import lombok.extern.slf4j.Slf4j;
 
@@ -21,6 +34,23 @@ public class MonitorWorkflowService extends AbstractLostItemsService {
     private final String WORKFLOW_DENIED_STATUS;
     private final String FOLIO_ITEM_NOTE_WORKFLOW_COMMENT;
 
+    private static final String WATERMARK_INDEX_RECONCILED = "workflow-index.last-reconciled";
+
+    @Autowired
+    private WorkflowItemIndex workflowItems;
+
+    @Autowired
+    private WatermarkStore watermarks;
+
+    private final DecisionPollSchedule pollSchedule;
+
+    // Keys of requests whose decision was written to FOLIO during the current run.
+    private final Set<String> decidedThisRun = ConcurrentHashMap.newKeySet();
+
+    // Shards covered by the last complete rebuild of the index, to notice when this node's share changes.
+    // Without sharding this is always every item; with it, the first run after starting rebuilds the index.
+    private Set<Shard> lastRunShards = Collections.singleton(Shard.ALL);
+
     public MonitorWorkflowService(PropertiesConfig config) throws Exception {
         super(config);
 
@@ -28,42 +58,220 @@ public class MonitorWorkflowService extends AbstractLostItemsService {
         this.WORKFLOW_APPROVED_STATUS = config.getWorkflowServer().getApprovedStatus();
         this.WORKFLOW_DENIED_STATUS = config.getWorkflowServer().getDeniedStatus();
         this.FOLIO_ITEM_NOTE_WORKFLOW_COMMENT = config.getFolio().getItemNotes().getLostItemWorkflowComment();
+        this.pollSchedule = new DecisionPollSchedule(config);
 
         log.info("Started MonitorWorkflowService.");
     }
 
+    /**
+     * Decision checks against the workflow server fan out over several threads, and decided 
+     * requests are handed to a separate stage, with its own threads, that queues the changes
+     * to be written to FOLIO in batches.  If FOLIO or the workflow server starts failing fast, 
+     * no more decisions are checked, but those already found are still written.  With sharding, 
+     * only the items in this node's shards are checked.
+     */
     @Scheduled(cron = "${lost-items-client.schedule.workflow-decisions}")
     public void triggerMonitor() {
         log.debug("Schedule triggered: checking for workflow decisions.");
+        Set<Shard> runShards = shards.startRun();
+        try {
+            if (runShards.isEmpty()) {
+                log.debug("This node holds no shards; not checking for workflow decisions.");
+                return;
+            }
+            monitor(runShards);
+        }
+        finally {
+            shards.finishRun();
+        }
+    }
 
-        List<PurchaseRequest> purchaseRequests = checkFolioForItemsInWorkflow();
-        for (PurchaseRequest purchaseRequest : purchaseRequests) {
-            try {
-                log.debug("Checking for decision on " + purchaseRequest.getKey());
-                purchaseRequest = updateFromWorkflow(purchaseRequest);
-                if (purchaseRequest == null) {
-                    log.debug("PR not found in WorkflowService; skipping.");
-                    continue;
-                }
-                if (isApproved(purchaseRequest)) {
-                    handleApproval(purchaseRequest);
-                }
-                else if (isDenied(purchaseRequest)) {
-                    handleDenial(purchaseRequest);
+    private void monitor(Set<Shard> runShards) {
+        PropertiesConfig.Pipeline pipelineConfig = config.getPipeline();
+        int capacity = pipelineConfig.getQueueCapacity();
+
+        MonitorRunMetrics.Run run = runMetrics.start("workflow-decisions");
+        AtomicBoolean halted = new AtomicBoolean(false);
+        FolioBatchWriter itemWriter = newItemWriter();
+        PipelineStage<PurchaseRequest> writeStage = new PipelineStage<PurchaseRequest>("workflow-decision-write",
+            pipelineConfig.getDecisionWriteWorkers(), capacity, 
+            purchaseRequest -> handleDecision(purchaseRequest, itemWriter, run)).start();
+        PipelineStage<PurchaseRequest> checkStage = new PipelineStage<PurchaseRequest>("workflow-decision-check",
+            pipelineConfig.getDecisionCheckWorkers(), capacity, 
+            purchaseRequest -> {
+                if (!halted.get()) {
+                    checkForDecision(purchaseRequest, writeStage, run);
                 }
-                else {
-                    log.debug("No decision yet on request " + purchaseRequest.getKey());
+            }).start();
+
+        decidedThisRun.clear();
+        boolean useIndex = config.getWorkflowIndex().isEnabled();
+        Instant runStart = Instant.now();
+        // The index only covers the shards this node held when it was last rebuilt.
+        boolean reconcile = useIndex && (isReconciliationDue(runStart) || !runShards.equals(lastRunShards));
+        Map<String, WorkflowItemIndex.Entry> foundInFolio = new HashMap<String, WorkflowItemIndex.Entry>();
+        Set<String> seenKeys = new HashSet<String>();
+        boolean complete = false;
+
+        try {
+            try (Stream<PurchaseRequest> purchaseRequests = 
+                useIndex && !reconcile ? loadIndexedItemsInWorkflow(runShards) : checkFolioForItemsInWorkflow(runShards)) {
+
+                Iterator<PurchaseRequest> it = purchaseRequests.iterator();
+                int fetched = 0;
+                int notDue = 0;
+                while (it.hasNext()) {
+                    if (isDependencyUnavailable() || isShardLost(runShards) 
+                        || PipelineStage.anyFailed(checkStage, writeStage)) {
+                        halted.set(true);
+                        break;
+                    }
+                    PurchaseRequest purchaseRequest = it.next();
+                    if (reconcile && purchaseRequest.getKey() != null) {
+                        foundInFolio.put(purchaseRequest.getKey(), 
+                            new WorkflowItemIndex.Entry(purchaseRequest.getExistingFolioItemId()));
+                    }
+                    if (purchaseRequest.getKey() != null) {
+                        seenKeys.add(purchaseRequest.getKey());
+                    }
+                    fetched++;
+                    run.count(MonitorRunMetrics.FOUND);
+                    if (purchaseRequest.getKey() != null && !pollSchedule.isDue(purchaseRequest.getKey(), runStart)) {
+                        notDue++;
+                        continue;
+                    }
+                    checkStage.submit(purchaseRequest);
                 }
+                log.debug("Skipped " + notDue + " of " + fetched + " requests not yet due a decision check.");
+                complete = !halted.get() && (QUERY_LIMIT == null || fetched < QUERY_LIMIT.intValue());
+            }
+            catch (RuntimeException e) {
+                log.error("Exception querying for items in workflow: ", e);
             }
-            catch (Exception e) {
-                log.warn("Exception handling PR " + purchaseRequest.getKey() + ".  Continuing to others.");
+            checkStage.finish();
+            writeStage.finish();
+            itemWriter.flush();
+            if (PipelineStage.anyFailed(checkStage, writeStage)) {
+                halted.set(true);
+                complete = false;
+            }
+        }
+        catch (InterruptedException e) {
+            log.warn("Interrupted while checking for workflow decisions.");
+            Thread.currentThread().interrupt();
+            run.finish("interrupted", MonitorRunMetrics.FOUND, MonitorRunMetrics.DECIDED, MonitorRunMetrics.FAILED);
+            return;
+        }
+        run.finish(halted.get() ? "halted" : complete ? "complete" : "partial", 
+            MonitorRunMetrics.FOUND, MonitorRunMetrics.DECIDED, MonitorRunMetrics.FAILED);
+        if (complete) {
+            pollSchedule.retainOnly(seenKeys);
+        }
+
+        if (reconcile) {
+            reconcileIndex(foundInFolio, complete, runStart);
+            if (complete) {
+                lastRunShards = runShards;
             }
         }
     }
 
-    private List<PurchaseRequest> checkFolioForItemsInWorkflow() {
-        String queryString = buildWorkflowPhrase();
-        return loadFolioItemsAsPurchaseRequests(queryString, QUERY_LIMIT);
+    private boolean isReconciliationDue(Instant runStart) {
+        Instant lastReconciled = watermarks.get(WATERMARK_INDEX_RECONCILED);
+        Duration interval = Duration.ofHours(config.getWorkflowIndex().getReconcileIntervalHours());
+        return lastReconciled == null || lastReconciled.isBefore(runStart.minus(interval));
+    }
+
+    /**
+     * Repair drift between the local index and FOLIO.  Decisions written during this run have
+     * already been removed from the index, so leave those out.
+     */
+    private void reconcileIndex(Map<String, WorkflowItemIndex.Entry> foundInFolio, boolean complete, 
+        Instant runStart) {
+
+        foundInFolio.keySet().removeAll(decidedThisRun);
+        if (complete) {
+            log.info("Rebuilt index of " + foundInFolio.size() + " items in workflow from FOLIO.");
+            workflowItems.replaceAll(foundInFolio);
+            watermarks.set(WATERMARK_INDEX_RECONCILED, runStart);
+        }
+        else {
+            log.debug("Partial scan of FOLIO; adding " + foundInFolio.size() + " items to the index.");
+            foundInFolio.forEach(workflowItems::put);
+        }
+    }
+
+    private Stream<PurchaseRequest> loadIndexedItemsInWorkflow(Set<Shard> runShards) {
+        Stream<PurchaseRequest> purchaseRequests = workflowItems.entries().entrySet().stream()
+            .filter(indexEntry -> isInShards(indexEntry.getValue().getItemId(), runShards))
+            .map(indexEntry -> {
+                PurchaseRequest purchaseRequest = new PurchaseRequest();
+                purchaseRequest.setKey(indexEntry.getKey());
+                purchaseRequest.setExistingFolioItemId(indexEntry.getValue().getItemId());
+                return purchaseRequest;
+            });
+        return QUERY_LIMIT == null ? purchaseRequests : purchaseRequests.limit(QUERY_LIMIT.intValue());
+    }
+
+    private void checkForDecision(PurchaseRequest purchaseRequest, PipelineStage<PurchaseRequest> writeStage, 
+        MonitorRunMetrics.Run run) throws InterruptedException {
+
+        PurchaseRequest savedRequest;
+        try {
+            log.debug("Checking for decision on " + purchaseRequest.getKey());
+            savedRequest = updateFromWorkflow(purchaseRequest);
+        }
+        catch (Exception e) {
+            log.warn("Exception handling PR " + purchaseRequest.getKey() + ".  Continuing to others.");
+            run.count(MonitorRunMetrics.FAILED);
+            return;
+        }
+        if (savedRequest == null) {
+            log.debug("PR not found in WorkflowService; skipping.");
+            pollSchedule.recordNotFound(purchaseRequest.getKey(), Instant.now());
+        }
+        else if (isApproved(savedRequest) || isDenied(savedRequest)) {
+            writeStage.submit(savedRequest);
+        }
+        else {
+            log.debug("No decision yet on request " + savedRequest.getKey());
+            pollSchedule.recordUndecided(purchaseRequest.getKey(), savedRequest.getCreationDate(), Instant.now());
+        }
+    }
+
+    private void handleDecision(PurchaseRequest purchaseRequest, FolioBatchWriter itemWriter, 
+        MonitorRunMetrics.Run run) {
+
+        try {
+            if (isApproved(purchaseRequest)) {
+                handleApproval(purchaseRequest, itemWriter, run);
+            }
+            else {
+                handleDenial(purchaseRequest, itemWriter, run);
+            }
+        }
+        catch (Exception e) {
+            log.warn("Exception handling PR " + purchaseRequest.getKey() + ".  Continuing to others.");
+            run.count(MonitorRunMetrics.FAILED);
+        }
+    }
+
+    private boolean isInWorkflow(JSONObject item) {
+        for (Object code : item.getJSONArray("statisticalCodeIds")) {
+            if (FOLIO_CODE_IN_WORKFLOW.equals(code)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean isInShards(String itemId, Set<Shard> runShards) {
+        return runShards.stream().anyMatch(shard -> shard.contains(itemId));
+    }
+
+    private Stream<PurchaseRequest> checkFolioForItemsInWorkflow(Set<Shard> runShards) {
+        String queryString = buildWorkflowPhrase() + buildShardPhrase(runShards);
+        return streamFolioItemsAsPurchaseRequests(queryString, null, QUERY_LIMIT);
     }
 
     private PurchaseRequest updateFromWorkflow(PurchaseRequest purchaseRequest) {
@@ -85,51 +293,75 @@ public class MonitorWorkflowService extends AbstractLostItemsService {
         return WORKFLOW_DENIED_STATUS.equals(purchaseRequest.getStatus());
     }
 
-    private void handleApproval(PurchaseRequest purchaseRequest) {
+    private void handleApproval(PurchaseRequest purchaseRequest, FolioBatchWriter itemWriter, 
+        MonitorRunMetrics.Run run) {
+
         log.info("Purchase approved: " + purchaseRequest);
-        JSONObject item = purchaseRequest.getExistingFolioItem();
-        markItemDecision(item, purchaseRequest, true);
+        markItemDecision(purchaseRequest, true, itemWriter, run);
     }
 
-    private void handleDenial(PurchaseRequest purchaseRequest) {
+    private void handleDenial(PurchaseRequest purchaseRequest, FolioBatchWriter itemWriter, 
+        MonitorRunMetrics.Run run) {
+
         log.info("Purchase denied: " + purchaseRequest);
 
-        JSONObject item = purchaseRequest.getExistingFolioItem();
-        markItemDecision(item, purchaseRequest, false);
+        markItemDecision(purchaseRequest, false, itemWriter, run);
     }
 
-    private void markItemDecision(JSONObject item, PurchaseRequest purchaseRequest, boolean purchaseApproved) {
-        removeStatisticalCode(item);
-        removeStatusNote(item);
-        if (purchaseApproved) {
-            notePurchaseApproved(item, purchaseRequest);
-        }
-        else {
-            notePurchaseDenied(item, purchaseRequest);
-        }
-        updateItemInFolio(purchaseRequest, item);
+    /**
+     * Queue the decision to be written to the item.  The changes are applied to the item as it is
+     * in FOLIO when the batch is written; an item no longer in the workflow is left alone, and its
+     * request is treated as decided.
+     */
+    private void markItemDecision(PurchaseRequest purchaseRequest, boolean purchaseApproved, 
+        FolioBatchWriter itemWriter, MonitorRunMetrics.Run run) {
+
+        itemWriter.update(purchaseRequest.getExistingFolioItemId(), item -> {
+            if (!isInWorkflow(item)) {
+                log.warn("Item " + purchaseRequest.getExistingFolioItemId() + " for PR " 
+                    + purchaseRequest.getKey() + " is no longer in the workflow.");
+                return false;
+            }
+            removeStatisticalCode(item);
+            removeStatusNote(item);
+            if (purchaseApproved) {
+                notePurchaseApproved(item, purchaseRequest);
+            }
+            else {
+                notePurchaseDenied(item, purchaseRequest);
+            }
+            return true;
+        }, success -> {
+            run.count(success ? MonitorRunMetrics.DECIDED : MonitorRunMetrics.FAILED);
+            if (success) {
+                decidedThisRun.add(purchaseRequest.getKey());
+                pollSchedule.recordDecided(purchaseRequest.getKey());
+                if (config.getWorkflowIndex().isEnabled()) {
+                    workflowItems.remove(purchaseRequest.getKey());
+                }
+            }
+        });
     }
 
-    private void removeStatisticalCode(JSONObject item) {
+    void removeStatisticalCode(JSONObject item) {
         JSONArray statisticalCodeIds = item.getJSONArray("statisticalCodeIds");
         Iterator<?> it = statisticalCodeIds.iterator();
         while (it.hasNext()) {
             String code = (String)it.next();
+            // Every copy, in case an item was ever marked twice.
             if (FOLIO_CODE_IN_WORKFLOW.equals(code)) {
                 it.remove();
-                break;
             }
         }
     }
 
-    private void removeStatusNote(JSONObject item) {
+    void removeStatusNote(JSONObject item) {
         JSONArray notes = item.getJSONArray("notes");
         Iterator<?> it = notes.iterator();
         while (it.hasNext()) {
             JSONObject note = (JSONObject)it.next();
             if (FOLIO_ITEM_NOTE_WORKFLOW_TAG.equals(note.getString("itemNoteTypeId"))) {
                 it.remove();
-                break;
             }
         }
     }
@@ -0,0 +1,135 @@
+package edu.lehigh.libraries.purchase_request.lost_items_client.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * One stage of a processing pipeline: a bounded queue of inputs worked off by a fixed number
+ * of threads.  Submitting blocks while the queue is full, so a slow stage holds back the
+ * stages feeding it rather than letting work pile up in memory.
+ *
+ * An exception handling one input is logged and does not stop the stage.  An Error, or an interrupt,
+ * stops the worker it happens on and fails the stage: submit then throws rather than feed a stage
+ * that may have no one left to work it, and finish only waits on the workers still running.
+ */
+@Slf4j
+class PipelineStage<T> {
+
+    interface Handler<T> {
+        void handle(T input) throws Exception;
+    }
+
+    private static final Object END = new Object();
+
+    // How often a blocked submit or finish checks whether the stage has failed.
+    private static final long CHECK_MILLIS = 100;
+
+    private final String name;
+    private final Handler<T> handler;
+    private final BlockingQueue<Object> queue;
+    private final List<Thread> workers = new ArrayList<Thread>();
+    private final AtomicInteger running = new AtomicInteger();
+    private volatile Throwable failure;
+
+    PipelineStage(String name, int workerCount, int queueCapacity, Handler<T> handler) {
+        this.name = name;
+        this.handler = handler;
+        this.queue = new ArrayBlockingQueue<Object>(Integer.max(queueCapacity, 1));
+        for (int i = 0; i < Integer.max(workerCount, 1); i++) {
+            Thread worker = new Thread(this::work, name + "-" + i);
+            worker.setDaemon(true);
+            workers.add(worker);
+        }
+    }
+
+    PipelineStage<T> start() {
+        running.set(workers.size());
+        workers.forEach(Thread::start);
+        return this;
+    }
+
+    /**
+     * Queue an input, waiting for room if the queue is full.
+     * 
+     * @throws IllegalStateException if the stage has failed.
+     */
+    void submit(T input) throws InterruptedException {
+        do {
+            if (failure != null) {
+                throw new IllegalStateException("Pipeline stage " + name + " has failed", failure);
+            }
+        } while (!queue.offer(input, CHECK_MILLIS, TimeUnit.MILLISECONDS));
+    }
+
+    /**
+     * Let the workers finish what is queued, and wait for them to stop.  If the stage has failed, 
+     * whatever is left queued when the last worker stops is dropped.
+     */
+    void finish() throws InterruptedException {
+        for (int i = 0; i < workers.size(); i++) {
+            while (running.get() > 0 && !queue.offer(END, CHECK_MILLIS, TimeUnit.MILLISECONDS)) {
+                // Wait for room, or for the workers to be gone.
+            }
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        queue.clear();
+    }
+
+    boolean hasFailed() {
+        return failure != null;
+    }
+
+    static boolean anyFailed(PipelineStage<?>... stages) {
+        for (PipelineStage<?> stage : stages) {
+            if (stage.hasFailed()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void work() {
+        try {
+            workUntilEnd();
+        }
+        catch (InterruptedException e) {
+            log.warn("Pipeline stage " + name + " interrupted.");
+            failure = e;
+        }
+        catch (Throwable e) {
+            log.error("Pipeline stage " + name + " failed: ", e);
+            failure = e;
+        }
+        finally {
+            running.decrementAndGet();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void workUntilEnd() throws InterruptedException {
+        while (true) {
+            Object input = queue.take();
+            if (input == END) {
+                return;
+            }
+            try {
+                handler.handle((T)input);
+            }
+            catch (InterruptedException e) {
+                throw e;
+            }
+            catch (Exception e) {
+                log.error("Exception in pipeline stage " + name + ": ", e);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,88 @@
+package edu.lehigh.libraries.purchase_request.lost_items_client.service;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+
+/**
+ * One of a fixed number of contiguous ranges of item ids, split by the id's leading byte, so that
+ * each range can be queried in CQL.  With a count of 1, the one shard is every item.
+ */
+@Getter @EqualsAndHashCode
+class Shard implements Comparable<Shard> {
+
+    static final Shard ALL = new Shard(0, 1);
+
+    static final String LEASE_PREFIX = "shard.";
+
+    private static final int PREFIXES = 256;
+
+    private final int index;
+    private final int count;
+
+    private Shard(int index, int count) {
+        this.index = index;
+        this.count = count;
+    }
+
+    static List<Shard> all(int count) {
+        if (count < 1 || count > PREFIXES) {
+            throw new IllegalArgumentException("Shard count must be from 1 to " + PREFIXES + ": " + count);
+        }
+        List<Shard> shards = new ArrayList<Shard>();
+        for (int index = 0; index < count; index++) {
+            shards.add(new Shard(index, count));
+        }
+        return shards;
+    }
+
+    boolean contains(String itemId) {
+        if (count == 1) {
+            return true;
+        }
+        int prefix = Integer.parseInt(itemId.substring(0, 2), 16);
+        return prefix * count / PREFIXES == index;
+    }
+
+    /**
+     * @return A name for the lease on this shard, distinct for each shard count.
+     */
+    String getLeaseName() {
+        return LEASE_PREFIX + (index + 1) + "-of-" + count;
+    }
+
+    /**
+     * @return A CQL phrase matching the ids in this shard, or null for every item.
+     */
+    String toCql() {
+        List<String> bounds = new ArrayList<String>();
+        if (index > 0) {
+            bounds.add("id>=\"" + lowestId(index) + "\"");
+        }
+        if (index < count - 1) {
+            bounds.add("id<\"" + lowestId(index + 1) + "\"");
+        }
+        return bounds.isEmpty() ? null : "(" + String.join(" and ", bounds) + ")";
+    }
+
+    /**
+     * @return The lowest id in the shard with this index: the first whose leading byte maps to it.
+     */
+    private String lowestId(int shardIndex) {
+        int prefix = (shardIndex * PREFIXES + count - 1) / count;
+        return String.format("%02x000000-0000-0000-0000-000000000000", prefix);
+    }
+
+    @Override
+    public int compareTo(Shard other) {
+        return Integer.compare(index, other.index);
+    }
+
+    @Override
+    public String toString() {
+        return (index + 1) + " of " + count;
+    }
+
+}
@@ -0,0 +1,191 @@
+package edu.lehigh.libraries.purchase_request.lost_items_client.service;
+
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PreDestroy;
+
+import org.springframework.stereotype.Component;
+
+import edu.lehigh.libraries.purchase_request.lost_items_client.config.PropertiesConfig;
+import edu.lehigh.libraries.purchase_request.lost_items_client.state.LeaseStore;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Decides which shards of the items this node handles, when sharding is enabled.
+ *
+ * Each node holds a lease on its own membership and one on each of its shards, and renews them in
+ * the background.  Before each run, a node works out its fair share, the shard count divided by the
+ * number of live nodes, rounded up.  It then takes free shards up to that share. Shards beyond it
+ * are only given up between runs, so that a shard is never handled by two nodes at once.  The shards
+ * of a node that stops are taken over once its leases expire.
+ *
+ * Lease expiry times are written by the node holding the lease and read against the clock of the
+ * node that would take it over.  A node stops treating a shard as its own a quarter of the lease time
+ * before its lease runs out, so the nodes' clocks must agree to within that.
+ */
+@Component
+@Slf4j
+class ShardCoordinator {
+
+    private static final String NODE_PREFIX = "node.";
+
+    private final boolean enabled;
+    private final List<Shard> allShards;
+    private final LeaseStore leases;
+    private final String nodeId;
+    private final Duration leaseTime;
+
+    // Shards this node holds, and when its hold on each runs out unless renewed.
+    private final Map<Shard, Instant> held = new ConcurrentHashMap<Shard, Instant>();
+    private int activeRuns = 0;
+    private ScheduledExecutorService renewer;
+
+    ShardCoordinator(PropertiesConfig config, LeaseStore leases) {
+        PropertiesConfig.Sharding sharding = config.getSharding();
+        this.enabled = sharding.isEnabled();
+        this.allShards = Shard.all(enabled ? sharding.getShardCount() : 1);
+        this.leases = leases;
+        this.nodeId = sharding.getNodeId() != null ? sharding.getNodeId() : ManagementFactory.getRuntimeMXBean().getName();
+        this.leaseTime = Duration.ofSeconds(sharding.getLeaseSeconds());
+
+        if (enabled) {
+            log.info("Sharding items " + allShards.size() + " ways as node " + nodeId);
+            long renewMillis = leaseTime.toMillis() / 3;
+            renewer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "shard-lease-renewal");
+                thread.setDaemon(true);
+                return thread;
+            });
+            renewer.scheduleWithFixedDelay(this::rebalance, 0, renewMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @PreDestroy
+    void shutdown() {
+        if (!enabled) {
+            return;
+        }
+        renewer.shutdownNow();
+        try {
+            held.keySet().forEach(shard -> leases.release(shard.getLeaseName(), nodeId));
+            leases.release(NODE_PREFIX + nodeId, nodeId);
+        }
+        catch (RuntimeException e) {
+            log.warn("Could not release shard leases on shutdown.", e);
+        }
+    }
+
+    /**
+     * Claim this node's share of the shards and start a run over them.  Call finishRun afterwards.
+     *
+     * @return The shards the run covers, in order.  Just Shard.ALL when sharding is disabled; empty
+     *   if this node holds none.
+     */
+    synchronized Set<Shard> startRun() {
+        if (!enabled) {
+            return Collections.singleton(Shard.ALL);
+        }
+        rebalance();
+        activeRuns++;
+        Set<Shard> shards = new TreeSet<Shard>(held.keySet());
+        log.debug("Node " + nodeId + " running over shards " + shards);
+        return shards;
+    }
+
+    synchronized void finishRun() {
+        if (enabled) {
+            activeRuns--;
+        }
+    }
+
+    /**
+     * @return True if this node still holds the shard the item is in, with at least a quarter of
+     *   the lease time to spare.
+     */
+    boolean owns(String itemId) {
+        if (!enabled) {
+            return true;
+        }
+        Instant margin = safetyMargin();
+        return held.entrySet().stream()
+            .anyMatch(entry -> entry.getKey().contains(itemId) && entry.getValue().isAfter(margin));
+    }
+
+    /**
+     * @return True if this node still holds all these shards, with at least a quarter of the lease 
+     *   time to spare.
+     */
+    boolean holdsAll(Set<Shard> shards) {
+        if (!enabled) {
+            return true;
+        }
+        Instant margin = safetyMargin();
+        return shards.stream().allMatch(shard -> {
+            Instant expires = held.get(shard);
+            return expires != null && expires.isAfter(margin);
+        });
+    }
+
+    private Instant safetyMargin() {
+        return Instant.now().plus(leaseTime.dividedBy(4));
+    }
+
+    private synchronized void rebalance() {
+        try {
+            Instant now = Instant.now();
+            if (!leases.tryAcquire(NODE_PREFIX + nodeId, nodeId, leaseTime)) {
+                log.warn("Another node is using the node id " + nodeId + "; give each node its own id.");
+            }
+            int liveNodes = Math.max(1, leases.holders(NODE_PREFIX).size());
+            int share = (allShards.size() + liveNodes - 1) / liveNodes;
+            Map<String, String> holders = leases.holders(Shard.LEASE_PREFIX);
+
+            // Renew what this node holds, and forget anything it has lost.
+            for (Shard shard : allShards) {
+                boolean mine = nodeId.equals(holders.get(shard.getLeaseName()));
+                if (mine && leases.tryAcquire(shard.getLeaseName(), nodeId, leaseTime)) {
+                    held.put(shard, now.plus(leaseTime));
+                }
+                else if (held.remove(shard) != null) {
+                    log.warn("Node " + nodeId + " lost its hold on shard " + shard);
+                }
+            }
+
+            if (activeRuns == 0) {
+                TreeSet<Shard> extra = new TreeSet<Shard>(held.keySet());
+                while (extra.size() > share) {
+                    Shard shard = extra.pollLast();
+                    held.remove(shard);
+                    leases.release(shard.getLeaseName(), nodeId);
+                    log.info("Node " + nodeId + " gave up shard " + shard + " for one of " + liveNodes + " nodes.");
+                }
+            }
+
+            for (Shard shard : allShards) {
+                if (held.size() >= share) {
+                    break;
+                }
+                if (!holders.containsKey(shard.getLeaseName()) && !held.containsKey(shard)
+                    && leases.tryAcquire(shard.getLeaseName(), nodeId, leaseTime)) {
+                    held.put(shard, now.plus(leaseTime));
+                    log.info("Node " + nodeId + " took shard " + shard);
+                }
+            }
+        }
+        catch (RuntimeException e) {
+            log.warn("Could not renew shard leases.", e);
+        }
+    }
+
+}
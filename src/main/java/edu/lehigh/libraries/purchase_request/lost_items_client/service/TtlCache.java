@@ -0,0 +1,131 @@
+package edu.lehigh.libraries.purchase_request.lost_items_client.service;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * A small in-memory cache whose entries expire after a fixed time, and which drops
+ * the least recently used entry once it holds its maximum number of entries.
+ */
+class TtlCache<K, V> {
+
+    interface Loader<K, V> {
+        V load(K key) throws Exception;
+    }
+
+    private static class Entry<V> {
+        final V value;
+        final long expires;
+
+        Entry(V value, long expires) {
+            this.value = value;
+            this.expires = expires;
+        }
+    }
+
+    private final long ttlMillis;
+    private final Map<K, Entry<V>> entries;
+    private final Map<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<K, CompletableFuture<V>>();
+
+    // Bumped on every invalidation, so a load that started before one is not cached.
+    private long generation = 0;
+
+    TtlCache(int maxSize, Duration ttl) {
+        this.ttlMillis = ttl.toMillis();
+        this.entries = new LinkedHashMap<K, Entry<V>>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, Entry<V>> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * @return The cached value, or null if absent or expired.
+     */
+    synchronized V get(K key) {
+        Entry<V> entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.expires < System.currentTimeMillis()) {
+            entries.remove(key);
+            return null;
+        }
+        return entry.value;
+    }
+
+    /**
+     * Get the cached value, or load it.  Concurrent callers asking for the same missing key 
+     * share a single call to the loader.
+     */
+    V get(K key, Loader<K, V> loader) throws Exception {
+        V value = get(key);
+        if (value != null) {
+            return value;
+        }
+
+        CompletableFuture<V> future = new CompletableFuture<V>();
+        CompletableFuture<V> existing = inFlight.putIfAbsent(key, future);
+        if (existing != null) {
+            try {
+                return existing.get();
+            }
+            catch (ExecutionException e) {
+                if (e.getCause() instanceof Error) {
+                    throw (Error)e.getCause();
+                }
+                throw e.getCause() instanceof Exception ? (Exception)e.getCause() : e;
+            }
+        }
+
+        try {
+            long startGeneration = getGeneration();
+            value = loader.load(key);
+            if (value != null) {
+                putIfGeneration(key, value, startGeneration);
+            }
+            future.complete(value);
+            return value;
+        }
+        catch (Throwable e) {
+            // Complete on errors too, or callers waiting on the same key would wait forever.
+            future.completeExceptionally(e);
+            throw e;
+        }
+        finally {
+            inFlight.remove(key, future);
+        }
+    }
+
+    private synchronized long getGeneration() {
+        return generation;
+    }
+
+    private synchronized void putIfGeneration(K key, V value, long expectedGeneration) {
+        if (generation == expectedGeneration) {
+            put(key, value);
+        }
+    }
+
+    synchronized void put(K key, V value) {
+        entries.put(key, new Entry<V>(value, System.currentTimeMillis() + ttlMillis));
+    }
+
+    synchronized void invalidate(K key) {
+        generation++;
+        entries.remove(key);
+    }
+
+    synchronized void clear() {
+        generation++;
+        entries.clear();
+    }
+
+}
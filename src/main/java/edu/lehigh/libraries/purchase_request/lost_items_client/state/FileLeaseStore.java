@@ -0,0 +1,148 @@
+package edu.lehigh.libraries.purchase_request.lost_items_client.state;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.function.Function;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Leases kept in a properties file that every node can reach, such as one on a shared volume.
+ *
+ * Each change reads the file, applies the change and writes it back, all while holding an
+ * exclusive lock on a companion .lock file, so that nodes in other processes, or on other hosts
+ * sharing the volume, see each other's leases.  Each lease is stored as its owner and expiration.
+ */
+@Slf4j
+public class FileLeaseStore implements LeaseStore {
+
+    private static final String SEPARATOR = ",";
+
+    // A FileLock is held by the whole JVM, and a second attempt to take it there fails rather than
+    // waits, so stores in one JVM, such as several nodes under test, take turns.
+    private static final Object JVM_LOCK = new Object();
+
+    private final Path file;
+    private final Path lockFile;
+
+    public FileLeaseStore(Path file) {
+        this.file = file;
+        this.lockFile = file.resolveSibling(file.getFileName() + ".lock");
+    }
+
+    @Override
+    public boolean tryAcquire(String lease, String owner, Duration ttl) {
+        return update(properties -> {
+            Instant now = Instant.now();
+            String holder = holderOf(properties.getProperty(lease), now);
+            if (holder != null && !holder.equals(owner)) {
+                return false;
+            }
+            properties.setProperty(lease, owner + SEPARATOR + now.plus(ttl).toEpochMilli());
+            return true;
+        });
+    }
+
+    @Override
+    public void release(String lease, String owner) {
+        update(properties -> {
+            String value = properties.getProperty(lease);
+            if (value != null && value.startsWith(owner + SEPARATOR)) {
+                properties.remove(lease);
+                return true;
+            }
+            return false;
+        });
+    }
+
+    @Override
+    public Map<String, String> holders(String prefix) {
+        Map<String, String> holders = new HashMap<String, String>();
+        update(properties -> {
+            Instant now = Instant.now();
+            for (String lease : properties.stringPropertyNames()) {
+                String holder = lease.startsWith(prefix) ? holderOf(properties.getProperty(lease), now) : null;
+                if (holder != null) {
+                    holders.put(lease, holder);
+                }
+            }
+            return false;
+        });
+        return holders;
+    }
+
+    /**
+     * @return The owner of an unexpired lease, or null.
+     */
+    private static String holderOf(String value, Instant now) {
+        if (value == null) {
+            return null;
+        }
+        int separator = value.lastIndexOf(SEPARATOR);
+        if (separator < 0) {
+            return null;
+        }
+        try {
+            Instant expires = Instant.ofEpochMilli(Long.parseLong(value.substring(separator + 1)));
+            return expires.isAfter(now) ? value.substring(0, separator) : null;
+        }
+        catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Apply a change to the leases under the lock.
+     *
+     * @param change Returns true if it changed the leases, which are then written back.
+     * @return What the change returned.
+     */
+    private boolean update(Function<Properties, Boolean> change) {
+        synchronized (JVM_LOCK) {
+            try {
+                Files.createDirectories(file.toAbsolutePath().getParent());
+                try (FileChannel channel = FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                    FileLock lock = channel.lock()) {
+
+                    Properties properties = new Properties();
+                    if (Files.exists(file)) {
+                        try (InputStream in = Files.newInputStream(file)) {
+                            properties.load(in);
+                        }
+                    }
+                    boolean changed = change.apply(properties);
+                    if (changed) {
+                        save(properties);
+                    }
+                    return changed;
+                }
+            }
+            catch (IOException e) {
+                throw new UncheckedIOException("Cannot update lease file " + file, e);
+            }
+        }
+    }
+
+    private void save(Properties properties) throws IOException {
+        Path temp = Files.createTempFile(file.toAbsolutePath().getParent(), file.getFileName().toString(), ".tmp");
+        try (OutputStream out = Files.newOutputStream(temp)) {
+            properties.store(out, null);
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        log.debug("Updated lease file " + file);
+    }
+
+}
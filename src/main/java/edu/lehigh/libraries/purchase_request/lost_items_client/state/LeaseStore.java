@@ -0,0 +1,30 @@
+package edu.lehigh.libraries.purchase_request.lost_items_client.state;
+
+import java.time.Duration;
+import java.util.Map;
+
+/**
+ * Named, expiring leases shared by every node running the client, so that each piece of work
+ * is owned by one node at a time.  A lease that is not renewed before it expires is free for
+ * another node to take.
+ */
+public interface LeaseStore {
+
+    /**
+     * Take a lease if it is free or expired, or renew it if the owner already holds it.
+     *
+     * @return True if the owner now holds the lease for the given time.
+     */
+    boolean tryAcquire(String lease, String owner, Duration ttl);
+
+    /**
+     * Give up a lease, if the owner holds it.
+     */
+    void release(String lease, String owner);
+
+    /**
+     * @return The owners of the unexpired leases whose names start with the prefix, keyed by lease name.
+     */
+    Map<String, String> holders(String prefix);
+
+}
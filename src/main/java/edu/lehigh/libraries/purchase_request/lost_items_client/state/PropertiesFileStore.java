@@ -0,0 +1,215 @@
+package edu.lehigh.libraries.purchase_request.lost_items_client.state;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Durable string key/value pairs kept in a properties file.
+ *
+ * Each change is appended to a journal beside the file, so a change costs the same however many
+ * pairs there are.  Once the journal holds more changes than there are pairs, the file is rewritten
+ * with everything and the journal emptied.  The file is replaced atomically, so a crash mid-write
+ * leaves the previous contents intact.
+ *
+ * Each rewrite of the file numbers it with a new generation, and a journal starts with the
+ * generation of the file it applies to.  A journal left behind by a crash just after the file
+ * was replaced belongs to an older generation and is not replayed, so changes the new file has
+ * already dropped, such as those replaced by replaceAll, are not brought back.
+ */
+@Slf4j
+public class PropertiesFileStore {
+
+    private static final char PUT = '+';
+    private static final char REMOVE = '-';
+
+    // Starts the comment the file is written with, and the first line of the journal.
+    private static final String GENERATION = "#generation ";
+
+    // Fewest journal entries before the file is rewritten, however few pairs there are.
+    private static final int MIN_COMPACTION_ENTRIES = 100;
+
+    private final Path file;
+    private final Path journal;
+    private final Properties properties = new Properties();
+    private long generation = 0;
+    private int journalEntries = 0;
+
+    public PropertiesFileStore(Path file) {
+        this.file = file;
+        this.journal = file.resolveSibling(file.getFileName() + ".journal");
+        load();
+    }
+
+    private void load() {
+        try {
+            if (Files.exists(file)) {
+                try (InputStream in = Files.newInputStream(file)) {
+                    properties.load(in);
+                }
+                generation = readGeneration(Files.readAllLines(file, StandardCharsets.ISO_8859_1));
+            }
+            else {
+                log.debug("No state file yet at " + file);
+            }
+            if (Files.exists(journal)) {
+                String changes = Files.readString(journal, StandardCharsets.UTF_8);
+                // Leave out a last line cut short by a crash.
+                int end = changes.lastIndexOf('\n') + 1;
+                String[] lines = changes.substring(0, end).split("\n");
+                if (!lines[0].equals(GENERATION + generation)) {
+                    log.info("Ignoring a state journal left from before " + file + " was last written.");
+                    return;
+                }
+                for (int i = 1; i < lines.length; i++) {
+                    replay(lines[i]);
+                    journalEntries++;
+                }
+                if (end < changes.length()) {
+                    save();
+                }
+            }
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException("Cannot read state file " + file, e);
+        }
+    }
+
+    public synchronized String get(String key) {
+        return properties.getProperty(key);
+    }
+
+    public synchronized void put(String key, String value) {
+        properties.setProperty(key, value);
+        append(PUT, key, value);
+    }
+
+    public synchronized void remove(String key) {
+        if (properties.remove(key) != null) {
+            append(REMOVE, key, "");
+        }
+    }
+
+    public synchronized Map<String, String> snapshot() {
+        Map<String, String> copy = new HashMap<String, String>();
+        properties.stringPropertyNames().forEach(key -> copy.put(key, properties.getProperty(key)));
+        return copy;
+    }
+
+    public synchronized void replaceAll(Map<String, String> values) {
+        properties.clear();
+        properties.putAll(values);
+        save();
+    }
+
+    private void append(char operation, String key, String value) {
+        if (journalEntries >= Integer.max(MIN_COMPACTION_ENTRIES, properties.size())) {
+            save();
+            return;
+        }
+        try {
+            Files.createDirectories(file.toAbsolutePath().getParent());
+            // A new journal replaces any left over from an older generation.
+            boolean first = journalEntries == 0;
+            try (Writer out = Files.newBufferedWriter(journal, StandardCharsets.UTF_8, StandardOpenOption.CREATE, 
+                first ? StandardOpenOption.TRUNCATE_EXISTING : StandardOpenOption.APPEND)) {
+                if (first) {
+                    out.write(GENERATION + generation + "\n");
+                }
+                out.write(operation + escape(key, value) + "\n");
+            }
+            journalEntries++;
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException("Cannot write state journal " + journal, e);
+        }
+    }
+
+    /**
+     * @return The generation in the comment the file was written with, or 0 if it has none.
+     */
+    private static long readGeneration(List<String> lines) {
+        for (String line : lines) {
+            if (line.startsWith(GENERATION)) {
+                try {
+                    return Long.parseLong(line.substring(GENERATION.length()).trim());
+                }
+                catch (NumberFormatException e) {
+                    return 0;
+                }
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Apply one journal line.
+     */
+    private void replay(String line) throws IOException {
+        if (line.isEmpty()) {
+            return;
+        }
+        Properties change = new Properties();
+        change.load(new StringReader(line.substring(1)));
+        for (String key : change.stringPropertyNames()) {
+            if (line.charAt(0) == PUT) {
+                properties.setProperty(key, change.getProperty(key));
+            }
+            else if (line.charAt(0) == REMOVE) {
+                properties.remove(key);
+            }
+        }
+    }
+
+    /**
+     * @return The pair as one line of a properties file, escaped as Properties.store does.
+     */
+    private static String escape(String key, String value) throws IOException {
+        Properties single = new Properties();
+        single.setProperty(key, value);
+        StringWriter out = new StringWriter();
+        single.store(out, null);
+        try (BufferedReader lines = new BufferedReader(new StringReader(out.toString()))) {
+            return lines.lines()
+                .filter(line -> !line.startsWith("#"))
+                .findFirst()
+                .orElseThrow();
+        }
+    }
+
+    private void save() {
+        try {
+            Path directory = file.toAbsolutePath().getParent();
+            Files.createDirectories(directory);
+            Path temp = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+            long nextGeneration = generation + 1;
+            try (OutputStream out = Files.newOutputStream(temp)) {
+                properties.store(out, GENERATION.substring(1) + nextGeneration);
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            generation = nextGeneration;
+            Files.deleteIfExists(journal);
+            journalEntries = 0;
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException("Cannot write state file " + file, e);
+        }
+    }
+
+}
@@ -0,0 +1,35 @@
+package edu.lehigh.libraries.purchase_request.lost_items_client.state;
+
+import java.nio.file.Paths;
+import java.time.Instant;
+
+import org.springframework.stereotype.Component;
+
+import edu.lehigh.libraries.purchase_request.lost_items_client.config.PropertiesConfig;
+
+/**
+ * Durable high-water marks for incremental polling, such as the time of the last 
+ * successful scan.
+ */
+@Component
+public class WatermarkStore {
+
+    private final PropertiesFileStore store;
+
+    public WatermarkStore(PropertiesConfig config) {
+        this.store = new PropertiesFileStore(Paths.get(config.getStateDirectory(), "watermarks.properties"));
+    }
+
+    /**
+     * @return The recorded time, or null if there is none yet.
+     */
+    public Instant get(String name) {
+        String value = store.get(name);
+        return value == null ? null : Instant.parse(value);
+    }
+
+    public void set(String name, Instant value) {
+        store.put(name, value.toString());
+    }
+
+}
@@ -0,0 +1,62 @@
+package edu.lehigh.libraries.purchase_request.lost_items_client.state;
+
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.springframework.stereotype.Component;
+
+import edu.lehigh.libraries.purchase_request.lost_items_client.config.PropertiesConfig;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * Durable index of the FOLIO items currently in the workflow, keyed by purchase request key, 
+ * so decision polling doesn't need to search FOLIO for them.
+ */
+@Component
+public class WorkflowItemIndex {
+
+    @Getter @AllArgsConstructor @ToString
+    public static class Entry {
+
+        private final String itemId;
+
+    }
+
+    private final PropertiesFileStore store;
+
+    public WorkflowItemIndex(PropertiesConfig config) {
+        this.store = new PropertiesFileStore(Paths.get(config.getStateDirectory(), "workflow-items.properties"));
+    }
+
+    public void put(String key, Entry entry) {
+        store.put(key, encode(entry));
+    }
+
+    public void remove(String key) {
+        store.remove(key);
+    }
+
+    public Map<String, Entry> entries() {
+        Map<String, Entry> entries = new HashMap<String, Entry>();
+        store.snapshot().forEach((key, value) -> entries.put(key, decode(value)));
+        return entries;
+    }
+
+    public void replaceAll(Map<String, Entry> entries) {
+        Map<String, String> values = new HashMap<String, String>();
+        entries.forEach((key, entry) -> values.put(key, encode(entry)));
+        store.replaceAll(values);
+    }
+
+    private static String encode(Entry entry) {
+        return entry.getItemId();
+    }
+
+    private static Entry decode(String value) {
+        return new Entry(value);
+    }
+
+}
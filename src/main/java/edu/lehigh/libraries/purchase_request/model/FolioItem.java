@@ -0,0 +1,357 @@
+package edu.lehigh.libraries.purchase_request.model;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.json.JSONObject;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.util.JsonParserDelegate;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * A FOLIO item as read from inventory.  The fields the client looks at are decoded once, when the
+ * item is read; the rest of the record is kept only as its raw JSON, and rebuilt as an org.json
+ * object when the item is about to be changed and written back.
+ */
+@Getter @ToString(onlyExplicitlyIncluded = true)
+public class FolioItem {
+
+    private static final JsonFactory FACTORY = new JsonFactory();
+    private static final String[] NONE = new String[0];
+
+    // Reused for each item a thread reads; only the finished copy is kept.
+    private static final ThreadLocal<ByteArrayOutputStream> COPY_BUFFER = 
+        ThreadLocal.withInitial(() -> new ByteArrayOutputStream(8192));
+
+    @ToString.Include
+    private final String id;
+
+    /**
+     * The item's _version, for optimistic locking, or null if it has none.
+     */
+    private final String version;
+
+    private final String holdingsRecordId;
+
+    @ToString.Include
+    private final String status;
+
+    private final String title;
+
+    /**
+     * The first of the item's contributor names, or null.
+     */
+    private final String contributor;
+
+    private final String barcode;
+
+    /**
+     * The item's own call number, or else its effective call number, or null.
+     */
+    private final String callNumber;
+
+    @Getter(AccessLevel.NONE)
+    private final String[] statisticalCodeIds;
+
+    // Note types and texts, in the same order.
+    @Getter(AccessLevel.NONE)
+    private final String[] noteTypeIds;
+    @Getter(AccessLevel.NONE)
+    private final String[] noteTexts;
+
+    @Getter(AccessLevel.NONE)
+    private final byte[] raw;
+
+    private FolioItem(Decoder decoder, byte[] raw) {
+        this.id = decoder.id;
+        this.version = decoder.version;
+        this.holdingsRecordId = decoder.holdingsRecordId;
+        this.status = decoder.status;
+        this.title = decoder.title;
+        this.contributor = decoder.contributor;
+        this.barcode = decoder.barcode;
+        this.callNumber = decoder.callNumber != null ? decoder.callNumber : decoder.effectiveCallNumber;
+        this.statisticalCodeIds = decoder.statisticalCodeIds.toArray(NONE);
+        this.noteTypeIds = decoder.noteTypeIds.toArray(NONE);
+        this.noteTexts = decoder.noteTexts.toArray(NONE);
+        this.raw = raw;
+    }
+
+    /**
+     * Read one item from a parser at the start of the item's object, leaving it at the end.
+     * The item's hot fields are decoded and its raw JSON copied in a single pass.
+     */
+    public static FolioItem read(JsonParser parser) throws IOException {
+        if (parser.currentToken() != JsonToken.START_OBJECT) {
+            throw new IOException("Expected a JSON object");
+        }
+        ByteArrayOutputStream raw = COPY_BUFFER.get();
+        raw.reset();
+        Decoder decoder = new Decoder();
+        try (JsonGenerator copy = FACTORY.createGenerator(raw)) {
+            copy.copyCurrentEvent(parser);
+            decoder.readItem(new CopyingParser(parser, copy));
+        }
+        if (decoder.id == null) {
+            throw new IOException("Item has no id");
+        }
+        return new FolioItem(decoder, raw.toByteArray());
+    }
+
+    public static FolioItem fromJson(byte[] json) throws IOException {
+        try (JsonParser parser = FACTORY.createParser(json)) {
+            parser.nextToken();
+            return read(parser);
+        }
+    }
+
+    public static FolioItem fromJson(JSONObject item) throws IOException {
+        return fromJson(item.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    public List<String> getStatisticalCodeIds() {
+        return Collections.unmodifiableList(Arrays.asList(statisticalCodeIds));
+    }
+
+    public boolean hasStatisticalCode(String code) {
+        for (String statisticalCodeId : statisticalCodeIds) {
+            if (statisticalCodeId.equals(code)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return The text of the item's first note of this type, or null if it has none.
+     */
+    public String findNote(String typeId) {
+        for (int i = 0; i < noteTypeIds.length; i++) {
+            if (noteTypeIds[i].equals(typeId)) {
+                return noteTexts[i];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return A new copy of the whole record, free to change.
+     */
+    public JSONObject toJSONObject() {
+        return new JSONObject(new String(raw, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Copies every token read, including skipped ones, to a generator.
+     */
+    private static class CopyingParser extends JsonParserDelegate {
+
+        private final JsonGenerator copy;
+
+        CopyingParser(JsonParser parser, JsonGenerator copy) {
+            super(parser);
+            this.copy = copy;
+        }
+
+        @Override
+        public JsonToken nextToken() throws IOException {
+            JsonToken token = delegate.nextToken();
+            if (token != null) {
+                copy.copyCurrentEvent(delegate);
+            }
+            return token;
+        }
+
+        @Override
+        public JsonParser skipChildren() throws IOException {
+            if (!currentToken().isStructStart()) {
+                return this;
+            }
+            int depth = 1;
+            while (depth > 0) {
+                JsonToken token = nextToken();
+                if (token == null) {
+                    break;
+                }
+                if (token.isStructStart()) {
+                    depth++;
+                }
+                else if (token.isStructEnd()) {
+                    depth--;
+                }
+            }
+            return this;
+        }
+
+    }
+
+    private static class Decoder {
+
+        String id;
+        String version;
+        String holdingsRecordId;
+        String status;
+        String title;
+        String contributor;
+        String barcode;
+        String callNumber;
+        String effectiveCallNumber;
+        final List<String> statisticalCodeIds = new ArrayList<String>();
+        final List<String> noteTypeIds = new ArrayList<String>();
+        final List<String> noteTexts = new ArrayList<String>();
+
+        void readItem(JsonParser parser) throws IOException {
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String name = parser.getCurrentName();
+                JsonToken token = parser.nextToken();
+                switch (name) {
+                    case "id":
+                        id = scalar(parser);
+                        break;
+                    case "_version":
+                        version = scalar(parser);
+                        break;
+                    case "holdingsRecordId":
+                        holdingsRecordId = scalar(parser);
+                        break;
+                    case "title":
+                        title = scalar(parser);
+                        break;
+                    case "barcode":
+                        barcode = scalar(parser);
+                        break;
+                    case "callNumber":
+                        callNumber = nonEmpty(scalar(parser));
+                        break;
+                    case "status":
+                        status = field(parser, "name");
+                        break;
+                    case "effectiveCallNumberComponents":
+                        effectiveCallNumber = nonEmpty(field(parser, "callNumber"));
+                        break;
+                    case "contributorNames":
+                        readContributorNames(parser);
+                        break;
+                    case "statisticalCodeIds":
+                        readStrings(parser, statisticalCodeIds);
+                        break;
+                    case "notes":
+                        readNotes(parser);
+                        break;
+                    default:
+                        if (token.isStructStart()) {
+                            parser.skipChildren();
+                        }
+                }
+            }
+        }
+
+        private void readContributorNames(JsonParser parser) throws IOException {
+            if (parser.currentToken() != JsonToken.START_ARRAY) {
+                parser.skipChildren();
+                return;
+            }
+            while (parser.nextToken() != JsonToken.END_ARRAY) {
+                String name = field(parser, "name");
+                if (contributor == null) {
+                    contributor = name;
+                }
+            }
+        }
+
+        private void readNotes(JsonParser parser) throws IOException {
+            if (parser.currentToken() != JsonToken.START_ARRAY) {
+                parser.skipChildren();
+                return;
+            }
+            while (parser.nextToken() != JsonToken.END_ARRAY) {
+                if (parser.currentToken() != JsonToken.START_OBJECT) {
+                    parser.skipChildren();
+                    continue;
+                }
+                String typeId = null;
+                String text = null;
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String name = parser.getCurrentName();
+                    parser.nextToken();
+                    if ("itemNoteTypeId".equals(name)) {
+                        typeId = scalar(parser);
+                    }
+                    else if ("note".equals(name)) {
+                        text = scalar(parser);
+                    }
+                    else {
+                        parser.skipChildren();
+                    }
+                }
+                if (typeId != null) {
+                    // Note types and statistical codes come from short lists, so share one copy of each.
+                    noteTypeIds.add(typeId.intern());
+                    noteTexts.add(text);
+                }
+            }
+        }
+
+        private static void readStrings(JsonParser parser, List<String> values) throws IOException {
+            if (parser.currentToken() != JsonToken.START_ARRAY) {
+                parser.skipChildren();
+                return;
+            }
+            while (parser.nextToken() != JsonToken.END_ARRAY) {
+                String value = scalar(parser);
+                if (value != null) {
+                    values.add(value.intern());
+                }
+            }
+        }
+
+        /**
+         * @return One scalar field of the object the parser is at, skipping the rest of it.
+         */
+        private static String field(JsonParser parser, String fieldName) throws IOException {
+            if (parser.currentToken() != JsonToken.START_OBJECT) {
+                parser.skipChildren();
+                return null;
+            }
+            String value = null;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String name = parser.getCurrentName();
+                parser.nextToken();
+                if (fieldName.equals(name)) {
+                    value = scalar(parser);
+                }
+                else {
+                    parser.skipChildren();
+                }
+            }
+            return value;
+        }
+
+        private static String scalar(JsonParser parser) throws IOException {
+            JsonToken token = parser.currentToken();
+            if (token.isStructStart()) {
+                parser.skipChildren();
+                return null;
+            }
+            return token == JsonToken.VALUE_NULL ? null : parser.getText();
+        }
+
+        private static String nonEmpty(String value) {
+            return value == null || value.isEmpty() ? null : value;
+        }
+
+    }
+
+}
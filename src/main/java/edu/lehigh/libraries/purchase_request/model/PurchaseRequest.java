@@ -1,6 +1,6 @@
 package edu.lehigh.libraries.purchase_request.model;
 
-import org.json.JSONObject;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 
 import lombok.EqualsAndHashCode;
 import lombok.Getter;
@@ -47,7 +47,7 @@ public class PurchaseRequest {
     @ToString.Exclude
     private String existingFolioItemId;
 
-    @ToString.Exclude
-    private JSONObject existingFolioItem;
+    @ToString.Exclude @JsonIgnore
+    private FolioItem existingFolioItem;
 
 }
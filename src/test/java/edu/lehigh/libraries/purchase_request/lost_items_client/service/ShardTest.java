@@ -0,0 +1,60 @@
+package edu.lehigh.libraries.purchase_request.lost_items_client.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+class ShardTest {
+
+    private static final Pattern BOUND = Pattern.compile("id(>=|<)\"([^\"]+)\"");
+
+    /**
+     * Every leading byte must fall in exactly one shard, and the shard's CQL must match the same ids
+     * as contains does, or items would be skipped or handled twice.
+     */
+    @ParameterizedTest
+    @ValueSource(ints = { 1, 2, 3, 5, 7, 16, 100, 255, 256 })
+    void containsMatchesCql(int count) {
+        List<Shard> shards = Shard.all(count);
+        for (int prefix = 0; prefix < 256; prefix++) {
+            String lowest = String.format("%02x000000-0000-0000-0000-000000000000", prefix);
+            String highest = String.format("%02xffffff-ffff-ffff-ffff-ffffffffffff", prefix);
+            int containing = 0;
+            for (Shard shard : shards) {
+                boolean contains = shard.contains(lowest);
+                assertEquals(contains, shard.contains(highest), "contains " + highest + " in " + shard);
+                assertEquals(contains, matchesCql(shard, lowest), "CQL for " + lowest + " in " + shard);
+                assertEquals(contains, matchesCql(shard, highest), "CQL for " + highest + " in " + shard);
+                if (contains) {
+                    containing++;
+                }
+            }
+            assertEquals(1, containing, "shards of " + count + " containing prefix " + prefix);
+        }
+    }
+
+    /**
+     * Evaluate the shard's CQL id bounds as FOLIO compares ids, as strings.
+     */
+    private static boolean matchesCql(Shard shard, String id) {
+        String cql = shard.toCql();
+        if (cql == null) {
+            return true;
+        }
+        Matcher bound = BOUND.matcher(cql);
+        while (bound.find()) {
+            int comparison = id.compareTo(bound.group(2));
+            boolean matches = ">=".equals(bound.group(1)) ? comparison >= 0 : comparison < 0;
+            if (!matches) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+}